@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+
+/*
+    Checks the precomputed day labels against the formatting they replace, and that looking
+    them up doesn't allocate.
+ */
+public class TestDateLabelEngine extends AndroidTestCase {
+    public static final String LOG_TAG = TestDateLabelEngine.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+    private static final int BENCHMARK_RUNS = 1000;
+
+    // The formatting Utility did before the labels were precomputed
+    private String legacyDayName(long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return mContext.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return mContext.getString(R.string.tomorrow);
+        }
+        return new SimpleDateFormat("EEEE").format(dateInMillis);
+    }
+
+    private String legacyMonthDay(long dateInMillis) {
+        return new SimpleDateFormat("MMMM dd").format(dateInMillis);
+    }
+
+    private String legacyFriendlyDay(long dateInMillis, boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today), legacyMonthDay(dateInMillis));
+        } else if (julianDay < currentJulianDay + 7) {
+            return legacyDayName(dateInMillis);
+        }
+        return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+    }
+
+    public void testLabelsMatchLegacyFormatting() {
+        long now = System.currentTimeMillis();
+        // Include yesterday and a few days past the end of the table
+        for (int i = -2; i < DateLabelEngine.DAY_COUNT + 3; i++) {
+            long date = now + i * DAY_IN_MILLIS;
+            assertEquals("Error: Day name for day " + i,
+                    legacyDayName(date), DateLabelEngine.getDayName(mContext, date));
+            assertEquals("Error: Month day for day " + i,
+                    legacyMonthDay(date), DateLabelEngine.getFormattedMonthDay(mContext, date));
+            assertEquals("Error: Friendly day for day " + i, legacyFriendlyDay(date, false),
+                    DateLabelEngine.getFriendlyDayString(mContext, date, false));
+            assertEquals("Error: Long friendly day for day " + i, legacyFriendlyDay(date, true),
+                    DateLabelEngine.getFriendlyDayString(mContext, date, true));
+            assertEquals("Error: Full friendly day for day " + i,
+                    mContext.getString(R.string.format_full_friendly_date,
+                            legacyDayName(date), legacyMonthDay(date)),
+                    DateLabelEngine.getFullFriendlyDayString(mContext, date));
+        }
+    }
+
+    public void testLookupDoesNotAllocate() {
+        long now = System.currentTimeMillis();
+        long[] dates = new long[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            dates[i] = now + i * DAY_IN_MILLIS;
+        }
+
+        // Build the table first
+        for (long date : dates) {
+            DateLabelEngine.getFriendlyDayString(mContext, date, true);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            for (long date : dates) {
+                DateLabelEngine.getFriendlyDayString(mContext, date, true);
+                DateLabelEngine.getFriendlyDayString(mContext, date, false);
+                DateLabelEngine.getFullFriendlyDayString(mContext, date);
+            }
+        }
+        long nanosPerLabel = (System.nanoTime() - start) / (BENCHMARK_RUNS * DAYS * 3);
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        start = System.nanoTime();
+        for (int run = 0; run < BENCHMARK_RUNS / 10; run++) {
+            for (long date : dates) {
+                legacyFriendlyDay(date, true);
+                legacyFriendlyDay(date, false);
+                legacyDayName(date);
+            }
+        }
+        long legacyNanosPerLabel = (System.nanoTime() - start) / (BENCHMARK_RUNS / 10 * DAYS * 3);
+
+        Log.i(LOG_TAG, "Per label: lookup " + nanosPerLabel + "ns, formatting "
+                + legacyNanosPerLabel + "ns, " + allocations + " allocations");
+        assertEquals("Error: Looking up day labels shouldn't allocate", 0, allocations);
+    }
+}
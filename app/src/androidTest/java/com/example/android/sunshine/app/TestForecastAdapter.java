@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/*
+    Benchmarks binding a forecast row.  Formatting happens when the data is loaded, so binding
+    should cost a small fraction of what formatting a row costs.
+ */
+public class TestForecastAdapter extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int BENCHMARK_RUNS = 50;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private Context mThemedContext;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThemedContext = new ContextThemeWrapper(mContext, R.style.AppTheme);
+
+        // Glide can't load into views off the main thread, so bind with the local graphics.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPack = prefs.getString(mContext.getString(R.string.pref_art_pack_key), null);
+        prefs.edit().putString(mContext.getString(R.string.pref_art_pack_key),
+                mContext.getString(R.string.pref_art_pack_sunshine)).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        if (null == mArtPack) {
+            editor.remove(mContext.getString(R.string.pref_art_pack_key));
+        } else {
+            editor.putString(mContext.getString(R.string.pref_art_pack_key), mArtPack);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    private MatrixCursor createForecastCursor() {
+        return createForecastCursor(System.currentTimeMillis(), 0);
+    }
+
+    private MatrixCursor createForecastCursor(long start, long firstId) {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        for (int i = 0; i < DAYS; i++) {
+            cursor.addRow(new Object[]{
+                    firstId + i,
+                    start + i * DAY_IN_MILLIS,
+                    "Clear",
+                    20.0 + i,
+                    10.0 - i,
+                    "99705",
+                    800 + (i % 5),
+                    64.7488,
+                    -147.353,
+                    80.0,
+                    1010.0,
+                    5.5f,
+                    90.0f
+            });
+        }
+        return cursor;
+    }
+
+    public void testRowsMatchCursor() {
+        MatrixCursor cursor = createForecastCursor();
+        List<ForecastRow> rows = ForecastRow.project(mContext, cursor);
+        assertEquals(DAYS, rows.size());
+
+        ForecastRow first = rows.get(0);
+        assertEquals(0L, first.id);
+        assertEquals(Utility.formatTemperature(mContext, 20.0), first.highText);
+        assertEquals(Utility.formatTemperature(mContext, 10.0), first.lowText);
+        assertEquals(Utility.getFriendlyDayString(mContext, first.date, true), first.longDateText);
+        assertEquals(Utility.getStringForWeatherCondition(mContext, 800), first.description);
+        assertNull("Error: Local graphics shouldn't have an art url", first.artUrl);
+        cursor.close();
+    }
+
+    public void testDiffMatchesRowsAcrossSyncs() {
+        long today = System.currentTimeMillis();
+        MatrixCursor oldCursor = createForecastCursor(today, 0);
+        List<ForecastRow> oldRows = ForecastRow.project(mContext, oldCursor);
+
+        // A sync replaces every row with new database ids, but the same days keep the same key.
+        MatrixCursor sameCursor = createForecastCursor(today, 100);
+        List<ForecastRow> sameRows = ForecastRow.project(mContext, sameCursor);
+        assertEquals(oldRows.get(3).stableId, sameRows.get(3).stableId);
+        assertTrue("Error: Identical forecasts shouldn't produce any notifications",
+                ForecastDiff.calculate(oldRows, sameRows).isEmpty());
+
+        // A forecast a day later drops the first row and adds one at the end.
+        MatrixCursor laterCursor = createForecastCursor(today + DAY_IN_MILLIS, 200);
+        List<ForecastRow> laterRows = ForecastRow.project(mContext, laterCursor);
+        ForecastDiff diff = ForecastDiff.calculate(oldRows, laterRows);
+        assertFalse(diff.isEmpty());
+        assertSame(oldRows, diff.getOldRows());
+        assertSame(laterRows, diff.getNewRows());
+        assertEquals(oldRows.get(1).stableId, laterRows.get(0).stableId);
+
+        oldCursor.close();
+        sameCursor.close();
+        laterCursor.close();
+    }
+
+    public void testIndexFindsRows() {
+        long today = System.currentTimeMillis();
+        MatrixCursor cursor = createForecastCursor(today, 0);
+        List<ForecastRow> rows = ForecastRow.project(mContext, cursor);
+        ForecastIndex index = new ForecastIndex(rows);
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(i, index.positionOfDate(rows.get(i).date));
+            assertEquals(i, index.positionOfId(rows.get(i).stableId));
+        }
+        assertEquals(RecyclerView.NO_POSITION, index.positionOfDate(today - DAY_IN_MILLIS));
+        assertEquals(RecyclerView.NO_POSITION,
+                index.positionOfId(ForecastRow.stableIdFor("99705", today + DAYS * DAY_IN_MILLIS)));
+        cursor.close();
+    }
+
+    public void testPreinflatedHoldersArePooled() {
+        final RecyclerView recyclerView = new RecyclerView(mThemedContext);
+        recyclerView.setLayoutManager(new LinearLayoutManager(mThemedContext));
+        recyclerView.setAdapter(new ForecastAdapter(mThemedContext,
+                new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                    @Override
+                    public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+                    }
+                }, new View(mThemedContext), AbsListView.CHOICE_MODE_NONE));
+        new ViewHolderPreinflater(recyclerView)
+                .add(ForecastAdapter.VIEW_TYPE_TODAY, 1)
+                .add(ForecastAdapter.VIEW_TYPE_FUTURE_DAY, 3)
+                .start();
+
+        // The pool is filled on the main thread, so drain it there until every holder is in
+        final List<RecyclerView.ViewHolder> today = new ArrayList<RecyclerView.ViewHolder>();
+        final List<RecyclerView.ViewHolder> future = new ArrayList<RecyclerView.ViewHolder>();
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                FutureTask<Boolean> drain = new FutureTask<Boolean>(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        RecyclerView.RecycledViewPool pool = recyclerView.getRecycledViewPool();
+                        RecyclerView.ViewHolder holder;
+                        while (null != (holder = pool.getRecycledView(
+                                ForecastAdapter.VIEW_TYPE_TODAY))) {
+                            today.add(holder);
+                        }
+                        while (null != (holder = pool.getRecycledView(
+                                ForecastAdapter.VIEW_TYPE_FUTURE_DAY))) {
+                            future.add(holder);
+                        }
+                        return today.size() >= 1 && future.size() >= 3;
+                    }
+                });
+                mainHandler.post(drain);
+                try {
+                    return drain.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }.run();
+
+        assertEquals("Error: Wrong number of preinflated today holders", 1, today.size());
+        assertEquals("Error: Wrong number of preinflated future holders", 3, future.size());
+        assertEquals(ForecastAdapter.VIEW_TYPE_TODAY, today.get(0).getItemViewType());
+        assertEquals(ForecastAdapter.VIEW_TYPE_FUTURE_DAY, future.get(0).getItemViewType());
+    }
+
+    public void testBindTimePerRow() {
+        MatrixCursor cursor = createForecastCursor();
+
+        RecyclerView recyclerView = new RecyclerView(mThemedContext);
+        recyclerView.setLayoutManager(new LinearLayoutManager(mThemedContext));
+        ForecastAdapter adapter = new ForecastAdapter(mThemedContext,
+                new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                    @Override
+                    public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+                    }
+                }, new View(mThemedContext), AbsListView.CHOICE_MODE_NONE);
+
+        // What binding used to cost: formatting every row
+        long start = System.nanoTime();
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            ForecastRow.project(mContext, cursor);
+        }
+        long projectNanosPerRow = (System.nanoTime() - start) / (BENCHMARK_RUNS * DAYS);
+
+        adapter.swapForecast(new ForecastRepository.Forecast("99705", ForecastDiff.calculate(
+                Collections.<ForecastRow>emptyList(), ForecastRow.project(mContext, cursor))));
+        ForecastAdapter.ForecastAdapterViewHolder[] holders =
+                new ForecastAdapter.ForecastAdapterViewHolder[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            holders[i] = adapter.onCreateViewHolder(recyclerView, adapter.getItemViewType(i));
+        }
+
+        // Warm up, then time binding alone
+        for (int i = 0; i < DAYS; i++) {
+            adapter.onBindViewHolder(holders[i], i);
+        }
+        start = System.nanoTime();
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            for (int i = 0; i < DAYS; i++) {
+                adapter.onBindViewHolder(holders[i], i);
+            }
+        }
+        long bindNanosPerRow = (System.nanoTime() - start) / (BENCHMARK_RUNS * DAYS);
+
+        Log.i(LOG_TAG, "Per row: bind " + bindNanosPerRow / 1000 + "us, format "
+                + projectNanosPerRow / 1000 + "us");
+        assertTrue("Error: Binding a row (" + bindNanosPerRow + "ns) should be cheaper than "
+                + "formatting it (" + projectNanosPerRow + "ns)", bindNanosPerRow < projectNanosPerRow);
+        cursor.close();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.utils.ForecastFixture;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that the repository loads the preferred location's forecast once for all of its
+    subscribers, serves its rows by date, and loads again when the weather data changes.  Also
+    checks that a nearby stand-in forecast goes away when the picked place's sync fails.
+ */
+public class TestForecastRepository extends AndroidTestCase {
+    private static final int DAYS = 7;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private ForecastRepository mRepository;
+    private String mSavedLocation;
+    private int mSeededDays;
+
+    // Queues up the forecasts it's given, other than the saved one shown at startup
+    private static class RecordingSubscriber implements ForecastRepository.Subscriber {
+        final BlockingQueue<ForecastRepository.Forecast> mForecasts =
+                new LinkedBlockingQueue<ForecastRepository.Forecast>();
+
+        @Override
+        public void onForecastChanged(ForecastRepository.Forecast forecast) {
+            if (forecast.published) {
+                mForecasts.add(forecast);
+            }
+        }
+
+        ForecastRepository.Forecast next() throws InterruptedException {
+            ForecastRepository.Forecast forecast = mForecasts.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("Error: No forecast was delivered", forecast);
+            return forecast;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedLocation = prefs.getString(locationKey, null);
+        prefs.edit().putString(locationKey, ForecastFixture.LOCATION_SETTING).commit();
+        PreferenceSnapshot.refresh(mContext);
+
+        // The fixture is in the test package's assets
+        mSeededDays = ForecastFixture.seed(
+                mContext.createPackageContext(mContext.getPackageName() + ".test", 0), mContext);
+        mRepository = ForecastRepository.getInstance(mContext);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRepository.invalidate();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        if (null == mSavedLocation) {
+            editor.remove(locationKey);
+        } else {
+            editor.putString(locationKey, mSavedLocation);
+        }
+        editor.commit();
+        PreferenceSnapshot.refresh(mContext);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRepository.invalidate();
+            }
+        });
+        super.tearDown();
+    }
+
+    // Android test cases have no instrumentation to do this for them
+    private static void runOnMainSync(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private void subscribe(final RecordingSubscriber... subscribers) throws InterruptedException {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (RecordingSubscriber subscriber : subscribers) {
+                    mRepository.subscribe(subscriber);
+                }
+            }
+        });
+    }
+
+    private void unsubscribe(final RecordingSubscriber... subscribers) throws InterruptedException {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (RecordingSubscriber subscriber : subscribers) {
+                    mRepository.unsubscribe(subscriber);
+                }
+            }
+        });
+    }
+
+    public void testSubscribersShareOneLoad() throws InterruptedException {
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        subscribe(first, second);
+        try {
+            ForecastRepository.Forecast forecast = first.next();
+            assertSame("Error: Subscribers should share the same forecast", forecast, second.next());
+            assertEquals(ForecastFixture.LOCATION_SETTING, forecast.locationSetting);
+            assertEquals(mSeededDays, forecast.rows.size());
+
+            ForecastRow today = forecast.rows.get(0);
+            assertSame(today, mRepository.find(ForecastFixture.LOCATION_SETTING, today.date));
+            assertNull("Error: Days that weren't loaded shouldn't be found",
+                    mRepository.find(ForecastFixture.LOCATION_SETTING,
+                            today.date + mSeededDays * DAY_IN_MILLIS));
+            assertNull("Error: Other locations shouldn't be found",
+                    mRepository.find("99705", today.date));
+
+            // A late subscriber gets the loaded forecast right away
+            RecordingSubscriber late = new RecordingSubscriber();
+            subscribe(late);
+            assertSame(forecast, late.next());
+            unsubscribe(late);
+        } finally {
+            unsubscribe(first, second);
+        }
+    }
+
+    public void testProviderChangeReloads() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        subscribe(subscriber);
+        try {
+            ForecastRepository.Forecast forecast = subscriber.next();
+            mContext.getContentResolver().notifyChange(WeatherContract.WeatherEntry
+                    .buildWeatherLocation(ForecastFixture.LOCATION_SETTING), null);
+            ForecastRepository.Forecast reloaded = subscriber.next();
+            assertNotSame("Error: The forecast should be reloaded when the data changes",
+                    forecast, reloaded);
+            assertSame("Error: The new forecast should be diffed against the last",
+                    forecast.rows, reloaded.diff.getOldRows());
+        } finally {
+            unsubscribe(subscriber);
+        }
+    }
+
+    public void testStandInIsDroppedWhenTheSyncFails() throws InterruptedException {
+        final String pickedLocation = "stand-in test place";
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String statusKey = mContext.getString(R.string.pref_location_status_key);
+        @SuppressWarnings("ResourceType")
+        @SunshineSyncAdapter.LocationStatus int savedStatus = prefs.getInt(statusKey,
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        prefs.edit().putString(mContext.getString(R.string.pref_location_key), pickedLocation)
+                .commit();
+        PreferenceSnapshot.refresh(mContext);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRepository.showStandIn(pickedLocation, ForecastFixture.LOCATION_SETTING);
+            }
+        });
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        subscribe(subscriber);
+        try {
+            ForecastRepository.Forecast standIn = subscriber.next();
+            assertEquals(pickedLocation, standIn.locationSetting);
+            assertEquals("Error: The nearby forecast should stand in for the picked place",
+                    mSeededDays, standIn.rows.size());
+
+            SunshineSyncAdapter.setLocationStatus(mContext,
+                    SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+            ForecastRepository.Forecast failed = subscriber.next();
+            assertEquals(pickedLocation, failed.locationSetting);
+            assertTrue("Error: The stand-in should be dropped when the sync fails",
+                    failed.rows.isEmpty());
+        } finally {
+            unsubscribe(subscriber);
+            SunshineSyncAdapter.setLocationStatus(mContext, savedStatus);
+        }
+    }
+
+    public void testGetLoadsWithoutSubscribers() {
+        assertNull("Error: Nothing should be loaded yet", mRepository.getCurrent());
+        ForecastRepository.Forecast forecast = mRepository.get();
+        assertNotNull(forecast);
+        assertEquals(mSeededDays, forecast.rows.size());
+        assertSame(forecast, mRepository.getCurrent());
+        assertSame("Error: A current forecast shouldn't be loaded again",
+                forecast, mRepository.get());
+    }
+
+    public void testRowsCarryDetailText() {
+        long start = WeatherContract.normalizeDate(System.currentTimeMillis());
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        for (int i = 0; i < DAYS; i++) {
+            cursor.addRow(new Object[]{
+                    i,
+                    start + i * DAY_IN_MILLIS,
+                    "Clear",
+                    20.0 + i,
+                    10.0 - i,
+                    "99705",
+                    800,
+                    64.7488,
+                    -147.353,
+                    80.0,
+                    1010.0,
+                    5.5f,
+                    90.0f
+            });
+        }
+        List<ForecastRow> rows = ForecastRow.project(mContext, cursor);
+        cursor.close();
+
+        ForecastRow row = rows.get(0);
+        assertEquals(Utility.getFullFriendlyDayString(mContext, start), row.fullDateText);
+        assertEquals(mContext.getString(R.string.format_humidity, 80.0f), row.humidityText);
+        assertEquals(mContext.getString(R.string.format_pressure, 1010.0f), row.pressureText);
+        assertEquals(Utility.getFormattedWind(mContext, 5.5f, 90.0f), row.windText);
+        assertEquals(String.format("%s - %s - %s/%s", row.fullDateText, row.description,
+                20.0, 10.0), row.shareText);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/*
+    Checks that the settings snapshot follows the stored preferences.
+ */
+public class TestPreferenceSnapshot extends AndroidTestCase {
+    private SharedPreferences mPrefs;
+    private String mUnits;
+    private String mLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key), null);
+        mLocation = mPrefs.getString(mContext.getString(R.string.pref_location_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        restore(R.string.pref_units_key, mUnits);
+        restore(R.string.pref_location_key, mLocation);
+        PreferenceSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    private void restore(int keyId, String value) {
+        String key = mContext.getString(keyId);
+        if (null == value) {
+            mPrefs.edit().remove(key).commit();
+        } else {
+            mPrefs.edit().putString(key, value).commit();
+        }
+    }
+
+    public void testSnapshotFollowsPreferences() {
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(R.string.pref_units_metric))
+                .putString(mContext.getString(R.string.pref_location_key), "99705")
+                .commit();
+        PreferenceSnapshot metric = PreferenceSnapshot.refresh(mContext);
+        assertTrue(metric.metric);
+        assertEquals("99705", metric.location);
+        assertSame("Error: An unchanged snapshot should be reused",
+                metric, PreferenceSnapshot.get(mContext));
+
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_imperial)).commit();
+        PreferenceSnapshot imperial = PreferenceSnapshot.refresh(mContext);
+        assertFalse(imperial.metric);
+        assertTrue("Error: Old snapshots must not change", metric.metric);
+        assertFalse(Utility.isMetric(mContext));
+        assertEquals(String.format(mContext.getString(R.string.format_temperature), 32.0),
+                imperial.formatTemperature(0));
+    }
+
+    public void testLocationStatusWritesRefreshSnapshot() {
+        SunshineSyncAdapter.setLocationStatus(mContext, SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, Utility.getLocationStatus(mContext));
+
+        Utility.resetLocationStatus(mContext);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, Utility.getLocationStatus(mContext));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import java.util.Locale;
+
+/*
+    Checks the cached temperature and wind strings against formatting them directly, and that
+    values already seen don't allocate.
+ */
+public class TestWeatherFormatter extends AndroidTestCase {
+    private static final float[] DEGREES = {0f, 22.4f, 22.5f, 67.5f, 112.5f, 157.5f, 202.5f,
+            247.5f, 292.5f, 337.4f, 337.5f, 359.9f, 360f, -10f, Float.NaN};
+
+    private WeatherFormatter createFormatter(boolean metric) {
+        return WeatherFormatter.obtain(metric, Locale.getDefault(),
+                mContext.getString(R.string.format_temperature),
+                mContext.getString(metric ? R.string.format_wind_kmh : R.string.format_wind_mph));
+    }
+
+    private String legacyTemperature(boolean metric, double temperature) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(mContext.getString(R.string.format_temperature), temperature);
+    }
+
+    private String legacyWind(boolean metric, float windSpeed, float degrees) {
+        int windFormat = R.string.format_wind_kmh;
+        if (!metric) {
+            windFormat = R.string.format_wind_mph;
+            windSpeed = .621371192237334f * windSpeed;
+        }
+        String direction = "Unknown";
+        if (degrees >= 337.5 || degrees < 22.5) {
+            direction = "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            direction = "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            direction = "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            direction = "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            direction = "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            direction = "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            direction = "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            direction = "NW";
+        }
+        return String.format(mContext.getString(windFormat), windSpeed, direction);
+    }
+
+    public void testMatchesDirectFormatting() {
+        for (boolean metric : new boolean[]{true, false}) {
+            WeatherFormatter formatter = createFormatter(metric);
+            // Includes values either side of the cache, and ones that round to -0
+            for (double temperature = -120; temperature <= 160; temperature += 0.3) {
+                assertEquals("Error: Temperature " + temperature,
+                        legacyTemperature(metric, temperature),
+                        formatter.formatTemperature(temperature));
+            }
+            assertEquals(legacyTemperature(metric, -0.2), formatter.formatTemperature(-0.2));
+
+            for (float speed = 0; speed <= 300; speed += 0.7f) {
+                for (float degrees : DEGREES) {
+                    assertEquals("Error: Wind " + speed + " at " + degrees,
+                            legacyWind(metric, speed, degrees),
+                            formatter.formatWind(speed, degrees));
+                }
+            }
+        }
+    }
+
+    public void testCachedValuesDoNotAllocate() {
+        WeatherFormatter formatter = createFormatter(true);
+        // See every value once
+        for (int temperature = -40; temperature <= 50; temperature++) {
+            formatter.formatTemperature(temperature);
+            formatter.formatWind(temperature + 40, temperature * 4);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int run = 0; run < 100; run++) {
+            for (int temperature = -40; temperature <= 50; temperature++) {
+                formatter.formatTemperature(temperature);
+                formatter.formatWind(temperature + 40, temperature * 4);
+            }
+        }
+        Debug.stopAllocCounting();
+        assertEquals("Error: Formatting values already seen shouldn't allocate",
+                0, Debug.getThreadAllocCount());
+    }
+}
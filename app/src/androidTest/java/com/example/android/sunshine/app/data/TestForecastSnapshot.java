@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int BENCHMARK_RUNS = 25;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        // Start yesterday so that the reader has to skip a stale row.
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, mToday + (i - 1) * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - i);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids " + i);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i);
+            values[i] = weatherValues;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ForecastSnapshot.getSnapshotFile(mContext, TestUtilities.TEST_LOCATION).delete();
+    }
+
+    public void testMissingSnapshot() {
+        assertNull("Error: Opened a snapshot that was never written",
+                ForecastSnapshot.open(mContext, TestUtilities.TEST_LOCATION));
+        assertNull("Error: Query should fall back when there is no snapshot",
+                ForecastSnapshot.query(mContext, TestUtilities.TEST_LOCATION, FORECAST_COLUMNS,
+                        System.currentTimeMillis()));
+    }
+
+    public void testSnapshotMatchesProvider() {
+        assertTrue("Error: Unable to write snapshot",
+                ForecastSnapshot.writeFromProvider(mContext, TestUtilities.TEST_LOCATION));
+
+        ForecastSnapshot snapshot = ForecastSnapshot.open(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: Unable to open snapshot", snapshot);
+        assertEquals(DAYS, snapshot.getCount());
+        assertEquals(64.7488, snapshot.getCoordLat(), 0.0001);
+        assertEquals(-147.353, snapshot.getCoordLong(), 0.0001);
+        assertEquals("Error: First record should be skipped as stale",
+                1, snapshot.findFirstIndexOnOrAfter(mToday));
+
+        Cursor expected = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        System.currentTimeMillis()),
+                FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        Cursor actual = ForecastSnapshot.query(mContext, TestUtilities.TEST_LOCATION,
+                FORECAST_COLUMNS, System.currentTimeMillis());
+        assertNotNull(actual);
+        assertEquals(expected.getCount(), actual.getCount());
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            assertEquals(expected.getLong(0), actual.getLong(0));
+            assertEquals(expected.getLong(1), actual.getLong(1));
+            assertEquals(expected.getString(2), actual.getString(2));
+            assertEquals(expected.getDouble(3), actual.getDouble(3), 0.0001);
+            assertEquals(expected.getDouble(4), actual.getDouble(4), 0.0001);
+            assertEquals(expected.getString(5), actual.getString(5));
+            assertEquals(expected.getInt(6), actual.getInt(6));
+            assertEquals(expected.getDouble(7), actual.getDouble(7), 0.0001);
+            assertEquals(expected.getDouble(8), actual.getDouble(8), 0.0001);
+        }
+        expected.close();
+        actual.close();
+    }
+
+    public void testSnapshotIgnoresOtherLocations() {
+        ForecastSnapshot.writeFromProvider(mContext, TestUtilities.TEST_LOCATION);
+        assertNull(ForecastSnapshot.open(mContext, "not" + TestUtilities.TEST_LOCATION));
+    }
+
+    /*
+        Compares reading today's forecast from the snapshot against what a cold start used to
+        pay: opening weather.db and running the weather/location join.
+     */
+    public void testSnapshotIsFasterThanDatabase() {
+        ForecastSnapshot.writeFromProvider(mContext, TestUtilities.TEST_LOCATION);
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+                " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+                " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID);
+        String selection = LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING +
+                " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?";
+        String[] selectionArgs = {TestUtilities.TEST_LOCATION, Long.toString(mToday)};
+
+        long[] database = new long[BENCHMARK_RUNS];
+        long[] snapshot = new long[BENCHMARK_RUNS];
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            long start = System.nanoTime();
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            Cursor cursor = builder.query(db, FORECAST_COLUMNS, selection, selectionArgs,
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertTrue(cursor.moveToFirst());
+            cursor.getString(2);
+            cursor.close();
+            dbHelper.close();
+            database[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            cursor = ForecastSnapshot.query(mContext, TestUtilities.TEST_LOCATION,
+                    FORECAST_COLUMNS, System.currentTimeMillis());
+            assertTrue(cursor.moveToFirst());
+            cursor.getString(2);
+            cursor.close();
+            snapshot[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(database);
+        Arrays.sort(snapshot);
+        long databaseMedian = database[BENCHMARK_RUNS / 2];
+        long snapshotMedian = snapshot[BENCHMARK_RUNS / 2];
+        Log.i(LOG_TAG, "Time to first forecast, median of " + BENCHMARK_RUNS + " runs: database "
+                + databaseMedian / 1000 + "us, snapshot " + snapshotMedian / 1000 + "us");
+
+        assertTrue("Error: Snapshot read (" + snapshotMedian + "ns) was not faster than opening "
+                + "the database (" + databaseMedian + "ns)", snapshotMedian < databaseMedian);
+    }
+}
@@ -160,6 +160,13 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/location/search?q=Nor&limit=5
+        type = mContext.getContentResolver().getType(
+                LocationEntry.buildLocationSearchUri("Nor", 5));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/location
+        assertEquals("Error: the LocationEntry search URI should return LocationEntry.CONTENT_TYPE",
+                LocationEntry.CONTENT_TYPE, type);
     }
 
 
@@ -445,6 +452,118 @@ public class TestProvider extends AndroidTestCase {
         return returnContentValues;
     }
 
+    /*
+        This test inserts locations through the ContentProvider, so the search index is written
+        by the provider's insert path, then checks prefix matching, frecency ranking, and that
+        updates and deletes keep the index in step.
+     */
+    public void testLocationSearch() {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, northPole);
+
+        ContentValues northampton = new ContentValues();
+        northampton.put(LocationEntry.COLUMN_LOCATION_SETTING, "NN1");
+        northampton.put(LocationEntry.COLUMN_CITY_NAME, "Northampton");
+        northampton.put(LocationEntry.COLUMN_COORD_LAT, 52.2405);
+        northampton.put(LocationEntry.COLUMN_COORD_LONG, -0.9027);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, northampton);
+
+        String[] projection = {LocationEntry.COLUMN_LOCATION_SETTING};
+
+        // Prefix of the city name, in a different case
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri("nort", 10), projection, null, null, null);
+        assertEquals("Error: Prefix search should match both locations", 2, cursor.getCount());
+        cursor.close();
+
+        // Prefix of the location setting, plus some punctuation FTS would otherwise choke on
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri("\"997*", 10), projection, null, null, null);
+        assertTrue("Error: Location setting prefix didn't match", cursor.moveToFirst());
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(0));
+        cursor.close();
+
+        // Picking Northampton should rank it first
+        int updated = mContext.getContentResolver().update(
+                LocationEntry.buildLocationUsedUri("NN1"), new ContentValues(), null, null);
+        assertEquals(1, updated);
+        mContext.getContentResolver().update(
+                LocationEntry.buildLocationUsedUri("NN1"), new ContentValues(), null, null);
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri("north", 10), projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: Most used location should rank first", "NN1", cursor.getString(0));
+        cursor.close();
+
+        // Renaming a location must reindex it
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Workshop");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION});
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri("santa work", 10), projection, null, null, null);
+        assertEquals("Error: Updated location wasn't reindexed", 1, cursor.getCount());
+        cursor.close();
+
+        // Deleting a location must drop it from the index
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"NN1"});
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri("north", 10), projection, null, null, null);
+        assertEquals("Error: Deleted location is still suggested", 0, cursor.getCount());
+        cursor.close();
+
+        // Nothing searchable returns nothing rather than an FTS syntax error
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri("  -- ", 10), projection, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        This test checks the nearby lookup: locations inside the radius come back nearest first,
+        including across a grid cell boundary, and locations outside it don't come back at all.
+     */
+    public void testLocationsNear() {
+        // Cell boundaries fall on multiples of 0.01 degrees; put one location either side.
+        insertLocation("near_a", 51.4999, -0.1249);
+        insertLocation("near_b", 51.5051, -0.1251);
+        insertLocation("far", 51.6, -0.2);
+
+        String[] projection = {LocationEntry.COLUMN_LOCATION_SETTING};
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearUri(51.5052, -0.1252, 1000),
+                projection, null, null, null);
+        assertEquals("Error: Wrong number of nearby locations", 2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Nearest location should come first", "near_b", cursor.getString(0));
+        cursor.moveToNext();
+        assertEquals("near_a", cursor.getString(0));
+        cursor.close();
+
+        // Moving a location must move it to its new grid cell
+        ContentValues moved = new ContentValues();
+        moved.put(LocationEntry.COLUMN_COORD_LAT, 51.6001);
+        moved.put(LocationEntry.COLUMN_COORD_LONG, -0.2001);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, moved,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"near_a"});
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearUri(51.6, -0.2, 100),
+                projection, null, null, LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+        assertEquals("Error: Moved location wasn't found at its new position", 2, cursor.getCount());
+        cursor.close();
+    }
+
+    private void insertLocation(String locationSetting, double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+    }
+
     // Student: Uncomment this test after you have completed writing the BulkInsert functionality
     // in your provider.  Note that this test will work with the built-in (default) provider
     // implementation, which just inserts records one-at-a-time, so really do implement the
@@ -36,6 +36,12 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/location/search?q=London&limit=5"
+    private static final Uri TEST_LOCATION_SEARCH_DIR = WeatherContract.LocationEntry.buildLocationSearchUri("London", 5);
+    // content://com.example.android.sunshine.app/location/used/London%2C%20UK"
+    private static final Uri TEST_LOCATION_USED = WeatherContract.LocationEntry.buildLocationUsedUri(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/location/near?lat=51.5&lon=-0.12&radius=1000.0"
+    private static final Uri TEST_LOCATION_NEAR_DIR = WeatherContract.LocationEntry.buildLocationNearUri(51.5, -0.12, 1000);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +59,11 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SEARCH_DIR), WeatherProvider.LOCATION_SEARCH);
+        assertEquals("Error: The LOCATION USED URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_USED), WeatherProvider.LOCATION_USED);
+        assertEquals("Error: The LOCATION NEAR URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAR_DIR), WeatherProvider.LOCATION_NEAR);
     }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.utils.LocalImageServer;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Locale;
+
+/*
+    Caches photos from a local server, following its redirects, then checks they're served
+    through our provider and kept within the cache's size.
+ */
+public class TestMuzeiArtworkCache extends AndroidTestCase {
+    private LocalImageServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalImageServer();
+        File[] files = new File(mContext.getCacheDir(), MuzeiArtworkCache.CACHE_DIR).listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private String imageUrl(String slug) {
+        return String.format(Locale.US, mServer.getArtPackFormat(), slug);
+    }
+
+    public void testPhotoIsDownloadedOnceAndServed() throws Exception {
+        MuzeiArtworkCache cache = new MuzeiArtworkCache(mContext);
+        File file = cache.fetch(imageUrl("storm"));
+        assertNotNull(file);
+        assertEquals(file, cache.fetch(imageUrl("storm")));
+        assertEquals("Error: A cached photo shouldn't be downloaded again",
+                1, mServer.getRequestCount());
+
+        Uri uri = cache.getContentUri(file);
+        assertEquals(mContext.getString(R.string.muzei_artwork_authority), uri.getAuthority());
+        InputStream in = mContext.getContentResolver().openInputStream(uri);
+        try {
+            int length = 0;
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                length += count;
+            }
+            assertEquals(mServer.getImageSize(), length);
+        } finally {
+            in.close();
+        }
+        assertEquals("image/png", mContext.getContentResolver().getType(uri));
+    }
+
+    public void testRedirectsAreFollowed() {
+        MuzeiArtworkCache cache = new MuzeiArtworkCache(mContext);
+        String redirectingUrl = String.format(Locale.US,
+                mServer.getRedirectingArtPackFormat(), "fog");
+        File file = cache.fetch(redirectingUrl);
+        assertNotNull("Error: A redirected photo should be downloaded", file);
+        assertEquals(mServer.getImageSize(), file.length());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testOnlyCachedPhotosAreServed() {
+        MuzeiArtworkCache cache = new MuzeiArtworkCache(mContext);
+        String authority = mContext.getString(R.string.muzei_artwork_authority);
+        assertNull(cache.getFile(Uri.parse("content://" + authority + "/0123abcd")));
+        assertNull(cache.getFile(Uri.parse("content://" + authority + "/..%2Fshared_prefs")));
+        assertNull(cache.getFile(Uri.parse("content://" + authority + "/a/b")));
+    }
+
+    public void testLeastRecentlyUsedPhotosAreDeleted() {
+        MuzeiArtworkCache cache = new MuzeiArtworkCache(mContext, 2 * mServer.getImageSize());
+        long now = System.currentTimeMillis();
+        File storm = cache.fetch(imageUrl("storm"));
+        File rain = cache.fetch(imageUrl("rain"));
+        assertTrue(storm.setLastModified(now - 60000));
+        assertTrue(rain.setLastModified(now - 30000));
+
+        File clear = cache.fetch(imageUrl("clear"));
+        assertFalse("Error: The least recently used photo should be deleted", storm.exists());
+        assertTrue(rain.exists());
+        assertTrue(clear.exists());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONObject;
+
+/*
+    Checks the sample summaries, and which frames count as janky.
+ */
+public class TestJankMonitor extends AndroidTestCase {
+
+    public void testPercentiles() {
+        SampleBuffer samples = new SampleBuffer(100);
+        for (int i = 100; i >= 1; i--) {
+            samples.add(i);
+        }
+        long[] sorted = samples.sorted();
+        assertEquals(50, SampleBuffer.percentile(sorted, 50));
+        assertEquals(90, SampleBuffer.percentile(sorted, 90));
+        assertEquals(99, SampleBuffer.percentile(sorted, 99));
+        assertEquals(100, SampleBuffer.percentile(sorted, 100));
+        assertEquals(0, SampleBuffer.percentile(new long[0], 50));
+    }
+
+    public void testBufferKeepsNewestSamples() {
+        SampleBuffer samples = new SampleBuffer(4);
+        for (int i = 1; i <= 6; i++) {
+            samples.add(i);
+        }
+        assertEquals(6, samples.getCount());
+        assertEquals(4, samples.size());
+        long[] sorted = samples.sorted();
+        assertEquals("Error: The oldest samples should be dropped first", 3, sorted[0]);
+        assertEquals(6, sorted[3]);
+    }
+
+    public void testJankyFrames() throws Exception {
+        JankMonitor monitor = new JankMonitor(getContext());
+        long interval = Math.round(monitor.getReport().getDouble("frameIntervalMs") * 1000000);
+        monitor.recordFrame(interval);
+        monitor.recordFrame(interval * 3);
+        monitor.recordBind(1000);
+
+        JSONObject report = monitor.getReport();
+        assertEquals(2, report.getLong("frames"));
+        assertEquals(1, report.getLong("jankyFrames"));
+        assertEquals("Error: A frame three intervals long skips two", 2,
+                report.getLong("skippedFrames"));
+        assertEquals(1, report.getJSONObject("bindUs").getLong("max"));
+
+        monitor.reset();
+        assertEquals(0, monitor.getReport().getLong("frames"));
+    }
+}
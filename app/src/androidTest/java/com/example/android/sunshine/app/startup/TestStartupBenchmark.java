@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.startup;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.DateLabelEngine;
+import com.example.android.sunshine.app.ForecastRepository;
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.PreferenceSnapshot;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsActivity;
+import com.example.android.sunshine.app.utils.ForecastFixture;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Benchmarks launching the forecast list from a seeded database, and writes the distribution
+    of the launch times to startup-benchmark.json in the app's external files directory (or its
+    files directory when there's no external storage), for comparing builds.
+
+    Each launch is measured by StartupTrace, to its first drawn frame and to the first frame that
+    shows a forecast row, in three modes:
+    - cold: a new activity after the app's in-memory caches have been cleared.  An instrumented
+      test runs in the app's process, so it can't restart it; for true process starts, time
+      "am start -W -S" from the host.
+    - warm: a new activity, with the caches as the last launch left them.
+    - hot: the same activity, coming back after another one covered it.
+
+    Uses the fixture forecast and the local graphics, so it doesn't touch the network.
+ */
+public class TestStartupBenchmark extends InstrumentationTestCase {
+    public static final String LOG_TAG = TestStartupBenchmark.class.getSimpleName();
+
+    private static final String RESULTS_FILE = "startup-benchmark.json";
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int ITERATIONS = 20;
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final long POLL_MILLIS = 10;
+
+    private static final String MODE_COLD = "cold";
+    private static final String MODE_WARM = "warm";
+    private static final String MODE_HOT = "hot";
+
+    private Context mContext;
+    private Map<String, ?> mSavedPreferences;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedPreferences = new HashMap<String, Object>(prefs.getAll());
+        prefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key),
+                        ForecastFixture.LOCATION_SETTING)
+                .remove(mContext.getString(R.string.pref_location_latitude))
+                .remove(mContext.getString(R.string.pref_location_longitude))
+                .putString(mContext.getString(R.string.pref_art_pack_key),
+                        mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+        PreferenceSnapshot.refresh(mContext);
+
+        ForecastFixture.seed(getInstrumentation().getContext(), mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit().clear();
+        for (Map.Entry<String, ?> entry : mSavedPreferences.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            }
+        }
+        editor.commit();
+        PreferenceSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testStartupBenchmark() throws Exception {
+        JSONObject modes = new JSONObject();
+        modes.put(MODE_COLD, runMode(MODE_COLD));
+        modes.put(MODE_WARM, runMode(MODE_WARM));
+        modes.put(MODE_HOT, runMode(MODE_HOT));
+
+        JSONObject results = new JSONObject();
+        results.put("versionName", BuildConfig.VERSION_NAME);
+        results.put("versionCode", BuildConfig.VERSION_CODE);
+        results.put("buildType", BuildConfig.BUILD_TYPE);
+        results.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        results.put("fingerprint", Build.FINGERPRINT);
+        results.put("sdk", Build.VERSION.SDK_INT);
+        results.put("timestamp", System.currentTimeMillis());
+        results.put("iterations", ITERATIONS);
+        results.put("modes", modes);
+
+        File file = writeResults(results);
+        Log.i(LOG_TAG, "Startup benchmark results written to " + file + ": " + modes);
+    }
+
+    private JSONObject runMode(String mode) throws Exception {
+        long[] firstDraw = new long[ITERATIONS];
+        long[] firstRow = new long[ITERATIONS];
+        Activity activity = null;
+        if (MODE_HOT.equals(mode)) {
+            // Hot launches all bring back the same activity
+            activity = launch();
+            waitForFirstForecastRow();
+        }
+
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            if (MODE_HOT.equals(mode)) {
+                relaunchFromBackground(activity);
+            } else {
+                if (MODE_COLD.equals(mode)) {
+                    clearCaches();
+                }
+                activity = launch();
+            }
+            waitForFirstForecastRow();
+            if (i >= 0) {
+                firstDraw[i] = StartupTrace.getTimeToFirstDraw();
+                firstRow[i] = StartupTrace.getTimeToFirstForecastRow();
+            }
+            if (!MODE_HOT.equals(mode)) {
+                finish(activity);
+            }
+        }
+        if (MODE_HOT.equals(mode)) {
+            finish(activity);
+        }
+
+        JSONObject results = new JSONObject();
+        results.put("timeToFirstDraw", summarize(firstDraw));
+        results.put("timeToFirstForecastRow", summarize(firstRow));
+        return results;
+    }
+
+    private Activity launch() {
+        Intent intent = new Intent(Intent.ACTION_MAIN)
+                .setClassName(mContext, MainActivity.class.getName())
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        return getInstrumentation().startActivitySync(intent);
+    }
+
+    // Covers the activity with the settings, waits for it to stop, then uncovers it again.
+    private void relaunchFromBackground(final Activity activity) throws Exception {
+        Instrumentation instrumentation = getInstrumentation();
+        Instrumentation.ActivityMonitor monitor =
+                instrumentation.addMonitor(SettingsActivity.class.getName(), null, false);
+        activity.startActivity(new Intent(activity, SettingsActivity.class));
+        final Activity settings = instrumentation.waitForMonitorWithTimeout(monitor, TIMEOUT_MILLIS);
+        instrumentation.removeMonitor(monitor);
+        assertNotNull("Error: Settings didn't open", settings);
+
+        // A stopped activity's window is hidden
+        final boolean[] stopped = new boolean[1];
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!stopped[0]) {
+            assertTrue("Error: Forecast wasn't stopped", System.currentTimeMillis() < deadline);
+            Thread.sleep(POLL_MILLIS);
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    stopped[0] = activity.getWindow().getDecorView().getVisibility()
+                            != View.VISIBLE;
+                }
+            });
+        }
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Forget the last launch, so we wait for this one
+                StartupTrace.begin();
+                settings.finish();
+            }
+        });
+    }
+
+    private void waitForFirstForecastRow() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (StartupTrace.NOT_MEASURED == StartupTrace.getTimeToFirstForecastRow()) {
+            assertTrue("Error: No forecast row was drawn", System.currentTimeMillis() < deadline);
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    private void finish(final Activity activity) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.finish();
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    // Drops what the app keeps in memory between launches.  Settings stay, since every launch
+    // of a new process reads them before drawing anyway.
+    private void clearCaches() {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Glide.get(mContext).clearMemory();
+                ForecastRepository.getInstance(mContext).invalidate();
+                DateLabelEngine.invalidate();
+            }
+        });
+        Runtime.getRuntime().gc();
+    }
+
+    private static JSONObject summarize(long[] samples) throws JSONException {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        JSONArray values = new JSONArray();
+        for (long sample : samples) {
+            total += sample;
+            values.put(sample);
+        }
+        JSONObject summary = new JSONObject();
+        summary.put("min", sorted[0]);
+        summary.put("median", percentile(sorted, 50));
+        summary.put("p90", percentile(sorted, 90));
+        summary.put("max", sorted[sorted.length - 1]);
+        summary.put("mean", (double) total / samples.length);
+        summary.put("samples", values);
+        return summary;
+    }
+
+    // Nearest rank percentile of sorted samples
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private File writeResults(JSONObject results) throws IOException, JSONException {
+        File dir = mContext.getExternalFilesDir(null);
+        if (null == dir) dir = mContext.getFilesDir();
+        File file = new File(dir, RESULTS_FILE);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(results.toString(2).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.startup;
+
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that startup tasks run after their dependencies, on the thread they asked for, and
+    that a failed task cancels the ones depending on it.
+ */
+public class TestStartupOrchestrator extends AndroidTestCase {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    // Records the order tasks ran in, and counts down once per task
+    private static class RecordingTask implements StartupOrchestrator.Task {
+        final String mName;
+        final List<String> mLog;
+        final CountDownLatch mLatch;
+        final boolean mResult;
+        volatile boolean mRanOnMainThread;
+
+        RecordingTask(String name, List<String> log, CountDownLatch latch, boolean result) {
+            mName = name;
+            mLog = log;
+            mLatch = latch;
+            mResult = result;
+        }
+
+        @Override
+        public boolean run() {
+            mRanOnMainThread = Looper.myLooper() == Looper.getMainLooper();
+            mLog.add(mName);
+            mLatch.countDown();
+            return mResult;
+        }
+    }
+
+    public void testDependenciesRunFirst() throws InterruptedException {
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(4);
+        RecordingTask a = new RecordingTask("a", log, latch, true);
+        RecordingTask b = new RecordingTask("b", log, latch, true);
+        RecordingTask c = new RecordingTask("c", log, latch, true);
+        RecordingTask d = new RecordingTask("d", log, latch, true);
+        new StartupOrchestrator()
+                .addBackgroundTask("d", d, "b", "c")
+                .addMainThreadTask("c", c, "a")
+                .addBackgroundTask("b", b, "a")
+                .addBackgroundTask("a", a)
+                .start();
+
+        assertTrue("Error: Not every task ran", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("a", log.get(0));
+        assertEquals("d", log.get(3));
+        assertFalse(a.mRanOnMainThread);
+        assertTrue("Error: Main thread task ran in the background", c.mRanOnMainThread);
+        assertFalse(d.mRanOnMainThread);
+    }
+
+    public void testFailureCancelsDependents() throws InterruptedException {
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(2);
+        CountDownLatch cancelled = new CountDownLatch(2);
+        new StartupOrchestrator()
+                .addBackgroundTask("fails", new RecordingTask("fails", log, latch, false))
+                .addBackgroundTask("independent",
+                        new RecordingTask("independent", log, latch, true))
+                .addBackgroundTask("child", new RecordingTask("child", log, cancelled, true),
+                        "fails")
+                .addMainThreadTask("grandchild",
+                        new RecordingTask("grandchild", log, cancelled, true), "child")
+                .start();
+
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse("Error: Dependents of a failed task ran",
+                cancelled.await(1, TimeUnit.SECONDS));
+        assertEquals(2, log.size());
+    }
+
+    public void testCycleIsRejected() {
+        StartupOrchestrator orchestrator = new StartupOrchestrator()
+                .addBackgroundTask("a", new RecordingTask("a", null, null, true), "b")
+                .addBackgroundTask("b", new RecordingTask("b", null, null, true), "a");
+        try {
+            orchestrator.start();
+            fail("Error: A dependency cycle should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
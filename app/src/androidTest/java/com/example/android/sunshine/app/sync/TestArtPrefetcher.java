@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.utils.LocalImageServer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Prefetches art from a local server, then checks that the consumers' requests are served
+    from Glide's caches.
+ */
+public class TestArtPrefetcher extends AndroidTestCase {
+    private LocalImageServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The server listens on a new port each time, so its urls are never cached already.
+        mServer = new LocalImageServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private String artUrl(String slug) {
+        return String.format(Locale.US, mServer.getArtPackFormat(), slug);
+    }
+
+    public void testPrefetchFillsCaches() throws Exception {
+        String todayArtUrl = artUrl("storm");
+        List<String> artUrls = Arrays.asList(todayArtUrl, artUrl("rain"), artUrl("clear"));
+
+        ArtPrefetcher prefetcher = new ArtPrefetcher(mContext);
+        assertEquals(artUrls.size(), prefetcher.prefetch(artUrls, todayArtUrl));
+        assertEquals("Error: Each image should be downloaded once",
+                artUrls.size(), mServer.getRequestCount());
+        assertEquals(artUrls.size() * mServer.getImageSize(), prefetcher.getBytesFetched());
+
+        // The notification and the widget should now load without touching the server.
+        int[] largeIconSize = ArtPrefetcher.getLargeIconSize(mContext.getResources());
+        FutureTarget<Bitmap> notificationArt = ArtPrefetcher.loadNotificationArt(mContext, todayArtUrl)
+                .into(largeIconSize[0], largeIconSize[1]);
+        assertNotNull(notificationArt.get());
+        notificationArt.clear();
+
+        int widgetIconSize = mContext.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        for (String artUrl : artUrls) {
+            FutureTarget<Bitmap> widgetArt = ArtPrefetcher.loadWidgetArt(mContext, artUrl)
+                    .into(widgetIconSize, widgetIconSize);
+            Bitmap bitmap = widgetArt.get();
+            assertNotNull(bitmap);
+            assertTrue("Error: Widget art should be decoded at the icon's size",
+                    bitmap.getWidth() <= widgetIconSize && bitmap.getHeight() <= widgetIconSize);
+            widgetArt.clear();
+        }
+        assertEquals("Error: Prefetched art shouldn't be downloaded again",
+                artUrls.size(), mServer.getRequestCount());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestFanOutGate extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences("fan_out_state", Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    public void testOnlyChangedDataIsDelivered() {
+        FanOutGate gate = new FanOutGate(mContext);
+        assertTrue("Error: The first update should always be delivered",
+                gate.offer(FanOutGate.WIDGETS, 42));
+        assertFalse("Error: The same data shouldn't be delivered twice",
+                gate.offer(FanOutGate.WIDGETS, 42));
+        assertTrue("Error: Other consumers are gated separately",
+                gate.offer(FanOutGate.MUZEI, 42));
+        assertTrue("Error: Changed data should be delivered",
+                gate.offer(FanOutGate.WIDGETS, 43));
+
+        // The hashes are persisted, so a new gate skips the same data
+        gate = new FanOutGate(mContext);
+        assertFalse(gate.offer(FanOutGate.WIDGETS, 43));
+        assertEquals(2, gate.getDeliveredCount(FanOutGate.WIDGETS));
+        assertEquals(2, gate.getSkippedCount(FanOutGate.WIDGETS));
+        assertEquals(1, gate.getDeliveredCount(FanOutGate.MUZEI));
+        assertEquals(0, gate.getSkippedCount(FanOutGate.MUZEI));
+    }
+
+    public void testForgetDeliversAgain() {
+        FanOutGate gate = new FanOutGate(mContext);
+        gate.offer(FanOutGate.WIDGETS, 42);
+        gate.offer(FanOutGate.WEARABLE, 42);
+        gate.forget(FanOutGate.WIDGETS);
+        assertTrue(gate.offer(FanOutGate.WIDGETS, 42));
+        assertFalse(gate.offer(FanOutGate.WEARABLE, 42));
+    }
+
+    public void testFailedDeliveryIsForgotten() throws Exception {
+        FanOutGate gate = new FanOutGate(mContext);
+        assertTrue(gate.offer(FanOutGate.WEARABLE, 42));
+        FanOutExecutor.getInstance().execute(FanOutGate.WEARABLE, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Watch unreachable");
+            }
+        }, 10, gate).get();
+
+        // The next sync tries again
+        assertTrue(gate.offer(FanOutGate.WEARABLE, 42));
+    }
+
+    public void testSlowDeliveryIsInterrupted() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        FanOutExecutor.getInstance().execute(FanOutGate.NOTIFICATION, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        }, 1, null);
+        assertTrue("Error: A delivery should be interrupted after its timeout",
+                interrupted.await(3, TimeUnit.SECONDS));
+    }
+}
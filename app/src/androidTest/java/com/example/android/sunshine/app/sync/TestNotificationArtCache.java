@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.PreferenceSnapshot;
+import com.example.android.sunshine.app.R;
+
+import java.io.File;
+
+/*
+    Renders the notification icons for the bundled art, then checks they're read back at the
+    notification's size without being rendered again.
+ */
+public class TestNotificationArtCache extends AndroidTestCase {
+    private static final int WEATHER_ID_CLEAR = 800;
+
+    private SharedPreferences mPrefs;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        mArtPack = mPrefs.getString(key, null);
+        mPrefs.edit().putString(key, mContext.getString(R.string.pref_art_pack_sunshine)).commit();
+        PreferenceSnapshot.refresh(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        if (null == mArtPack) {
+            mPrefs.edit().remove(key).commit();
+        } else {
+            mPrefs.edit().putString(key, mArtPack).commit();
+        }
+        PreferenceSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testPopulateRendersPreScaledIcons() {
+        NotificationArtCache cache = NotificationArtCache.getInstance(mContext);
+        cache.populate();
+        assertEquals("Error: Icons on disk shouldn't be rendered again", 0, cache.populate());
+
+        File dir = new File(mContext.getCacheDir(), NotificationArtCache.CACHE_DIR);
+        File[] files = dir.listFiles();
+        assertNotNull(files);
+        assertTrue("Error: Every kind of weather should have an icon", files.length > 0);
+
+        int[] size = ArtPrefetcher.getLargeIconSize(mContext.getResources());
+        Bitmap icon = cache.get(WEATHER_ID_CLEAR);
+        assertNotNull(icon);
+        assertTrue("Error: Icons should be scaled to the notification's size",
+                icon.getWidth() <= size[0] && icon.getHeight() <= size[1]);
+    }
+
+    public void testIconsForOtherArtPacksAreDeleted() throws Exception {
+        File stale = new File(new File(mContext.getCacheDir(), NotificationArtCache.CACHE_DIR),
+                "clear_00000000_1x1.png");
+        stale.getParentFile().mkdirs();
+        assertTrue(stale.createNewFile() || stale.exists());
+
+        NotificationArtCache.getInstance(mContext).populate();
+        assertFalse(stale.exists());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fills the provider with a forecast recorded from OpenWeatherMap, stored in the test assets,
+ * so that tests and benchmarks see realistic data without the network.  The days are stored
+ * from today on, the way a sync would store them.
+ */
+public class ForecastFixture {
+    public static final String LOCATION_SETTING = "94043";
+
+    private static final String ASSET = "forecast_fixture.json";
+
+    /**
+     * Replaces everything in the provider with the fixture's forecast, and writes its snapshot.
+     *
+     * @param testContext a context for the test package, which holds the fixture
+     * @param targetContext a context for the app
+     * @return the number of days stored
+     */
+    public static int seed(Context testContext, Context targetContext)
+            throws IOException, JSONException {
+        JSONObject forecast = new JSONObject(readAsset(testContext));
+        ContentResolver resolver = targetContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+
+        JSONObject city = forecast.getJSONObject("city");
+        JSONObject coord = city.getJSONObject("coord");
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, city.getString("name"));
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, coord.getDouble("lat"));
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, coord.getDouble("lon"));
+        locationValues.put(LocationEntry.COLUMN_LAST_USED, System.currentTimeMillis());
+        locationValues.put(LocationEntry.COLUMN_USE_COUNT, 1);
+        long locationId = ContentUris.parseId(
+                resolver.insert(LocationEntry.CONTENT_URI, locationValues));
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        dayTime = new Time();
+
+        JSONArray days = forecast.getJSONArray("list");
+        ContentValues[] weatherValues = new ContentValues[days.length()];
+        for (int i = 0; i < days.length(); i++) {
+            JSONObject day = days.getJSONObject(i);
+            JSONObject weather = day.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperature = day.getJSONObject("temp");
+
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            values.put(WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(julianStartDay + i));
+            values.put(WeatherEntry.COLUMN_HUMIDITY, day.getInt("humidity"));
+            values.put(WeatherEntry.COLUMN_PRESSURE, day.getDouble("pressure"));
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, day.getDouble("speed"));
+            values.put(WeatherEntry.COLUMN_DEGREES, day.getDouble("deg"));
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, temperature.getDouble("max"));
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, temperature.getDouble("min"));
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, weather.getString("main"));
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, weather.getInt("id"));
+            weatherValues[i] = values;
+        }
+        int inserted = resolver.bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+        ForecastSnapshot.writeFromProvider(targetContext, LOCATION_SETTING);
+        return inserted;
+    }
+
+    private static String readAsset(Context context) throws IOException {
+        InputStream in = context.getAssets().open(ASSET);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
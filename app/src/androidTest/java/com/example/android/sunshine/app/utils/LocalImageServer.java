@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny HTTP server on the loopback interface that answers every GET with the same PNG, so
+ * art packs can be tested without the network.  Use {@link #getArtPackFormat()} as the art pack
+ * preference and {@link #getRequestCount()} to see how many images were actually fetched.
+ * Urls from {@link #getRedirectingArtPackFormat()} are first redirected to the image.
+ */
+public class LocalImageServer {
+    private static final int IMAGE_SIZE = 64;
+    private static final String REDIRECT_PREFIX = "/redirect";
+
+    private final ServerSocket mServerSocket;
+    private final byte[] mImage;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final Thread mThread;
+
+    public LocalImageServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+
+        Bitmap bitmap = Bitmap.createBitmap(IMAGE_SIZE, IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.YELLOW);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        mImage = out.toByteArray();
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        serve(mServerSocket.accept());
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        }, "LocalImageServer");
+        mThread.start();
+    }
+
+    private void serve(Socket socket) throws IOException {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            // "GET /path HTTP/1.1", then skip the headers
+            String requestLine = reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+            }
+            String[] request = null == requestLine ? new String[0] : requestLine.split(" ");
+            String path = request.length > 1 ? request[1] : "/";
+
+            OutputStream out = socket.getOutputStream();
+            if (path.startsWith(REDIRECT_PREFIX + "/")) {
+                String location = "http://127.0.0.1:" + mServerSocket.getLocalPort()
+                        + path.substring(REDIRECT_PREFIX.length());
+                out.write(("HTTP/1.1 301 Moved Permanently\r\n"
+                        + "Location: " + location + "\r\n"
+                        + "Content-Length: 0\r\n"
+                        + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+                out.flush();
+                return;
+            }
+            mRequestCount.incrementAndGet();
+
+            String headers = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: image/png\r\n"
+                    + "Content-Length: " + mImage.length + "\r\n"
+                    + "Connection: close\r\n\r\n";
+            out.write(headers.getBytes("US-ASCII"));
+            out.write(mImage);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * @return an art pack url format that points at this server
+     */
+    public String getArtPackFormat() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/art_%s.png";
+    }
+
+    /**
+     * @return an art pack url format whose urls are redirected to {@link #getArtPackFormat()}
+     */
+    public String getRedirectingArtPackFormat() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + REDIRECT_PREFIX
+                + "/art_%s.png";
+    }
+
+    /**
+     * @return the number of images served, not counting redirects
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getImageSize() {
+        return mImage.length;
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+    }
+}
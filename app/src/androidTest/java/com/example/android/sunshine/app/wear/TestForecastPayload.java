@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+
+/*
+    Checks the layout of the forecast sent to the watch, which the watch face decodes on its own,
+    and that its days mean the same calendar days to the watch as to the phone.
+ */
+public class TestForecastPayload extends AndroidTestCase {
+
+    public void testPayloadLayout() {
+        long firstDate = 1419033600000L;
+        byte[] payload = ForecastPayload.encode(firstDate,
+                new int[]{800, 501}, new double[]{21.44, -3.0}, new double[]{9.96, -12.5});
+        assertEquals("Error: Each day should take six bytes",
+                ForecastPayload.HEADER_SIZE + 2 * ForecastPayload.DAY_SIZE, payload.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        assertEquals(ForecastPayload.VERSION, buffer.get());
+        assertEquals(2, buffer.get());
+        assertEquals(ForecastPayload.getJulianDay(firstDate), buffer.getInt());
+        assertEquals(800, buffer.getShort());
+        assertEquals(214, buffer.getShort());
+        assertEquals(100, buffer.getShort());
+        assertEquals(501, buffer.getShort());
+        assertEquals(-30, buffer.getShort());
+        assertEquals(-125, buffer.getShort());
+    }
+
+    public void testDaysRoundTripOutsideUtc() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        try {
+            // Ahead of UTC, local midnight is still the day before in UTC
+            assertDaysRoundTrip("Asia/Tokyo");
+            // March 13, 2016 is a day short in Los Angeles, where daylight saving starts
+            assertDaysRoundTrip("America/Los_Angeles");
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    private void assertDaysRoundTrip(String timeZone) {
+        TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+        // Dated the way the sync adapter stores them, at local midnight
+        Time time = new Time();
+        time.set(0, 0, 0, 12, 2, 2016);
+        int firstJulianDay = Time.getJulianDay(time.toMillis(true), time.gmtoff);
+        long firstDate = time.setJulianDay(firstJulianDay);
+        byte[] payload = ForecastPayload.encode(firstDate, new int[]{800, 501, 600},
+                new double[]{10, 11, 12}, new double[]{0, 1, 2});
+
+        // Decoded the way the watch face does: consecutive julian days from the first
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.get();
+        int count = buffer.get();
+        int decodedJulianDay = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            Time day = new Time();
+            day.setJulianDay(decodedJulianDay + i);
+            assertEquals("Error: Day " + i + " moved in " + timeZone, 12 + i, day.monthDay);
+            assertEquals(2, day.month);
+            assertEquals(2016, day.year);
+        }
+    }
+}
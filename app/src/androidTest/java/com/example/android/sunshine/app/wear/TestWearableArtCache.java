@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+/*
+    Checks that the watch face's art is encoded once, at the size the watch shows it.
+ */
+public class TestWearableArtCache extends AndroidTestCase {
+    private static final int WEATHER_ID_CLEAR = 800;
+    private static final int WEATHER_ID_UNKNOWN = 999;
+
+    public void testArtIsEncodedOnce() {
+        String artId = WearableArtCache.getArtId(WEATHER_ID_CLEAR);
+        assertNotNull(artId);
+        assertNull(WearableArtCache.getArtId(WEATHER_ID_UNKNOWN));
+
+        WearableArtCache cache = WearableArtCache.getInstance(mContext);
+        byte[] bytes = cache.getBytes(artId);
+        assertNotNull(bytes);
+        assertSame("Error: Art should only be encoded once", bytes, cache.getBytes(artId));
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        assertNotNull(bitmap);
+        assertTrue("Error: Art should be encoded at the watch's size",
+                bitmap.getWidth() <= WearableArtCache.ART_SIZE
+                        && bitmap.getHeight() <= WearableArtCache.ART_SIZE);
+    }
+
+    public void testUnknownArtIsNotSent() {
+        assertNull(WearableArtCache.getInstance(mContext).getBytes("../shared_prefs"));
+    }
+}
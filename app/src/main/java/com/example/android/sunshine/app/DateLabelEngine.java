@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * Formats the day labels shown throughout Sunshine ("Today, June 24", "Tomorrow", "Wednesday",
+ * "Mon Jun 29" and so on).
+ * <p/>
+ * Forecasts only ever cover the next couple of weeks, so the labels for those days are worked
+ * out once, kept in arrays indexed by julian day, and looked up from then on without allocating
+ * anything.  The table is rebuilt on first use after midnight, and whenever the locale, time
+ * zone or clock changes.  Days outside the table are formatted the slow way.
+ * <p/>
+ * Tables are immutable once built, so lookups are safe from any thread.
+ */
+public class DateLabelEngine {
+    // Yesterday, today and the next two weeks
+    static final int FIRST_DAY_OFFSET = -1;
+    static final int DAY_COUNT = 17;
+
+    private static final Object sLock = new Object();
+    private static volatile Labels sLabels;
+    private static BroadcastReceiver sReceiver;
+
+    private DateLabelEngine() {
+    }
+
+    /**
+     * The labels for each day in the table.  Everything needed to check whether the table still
+     * applies is kept alongside it.
+     */
+    private static final class Labels {
+        final int firstJulianDay;
+        final int todayJulianDay;
+        final long gmtoff;
+        final long validUntil;
+        final Locale locale;
+
+        final String[] friendly = new String[DAY_COUNT];
+        final String[] friendlyLong = new String[DAY_COUNT];
+        final String[] fullFriendly = new String[DAY_COUNT];
+        final String[] dayName = new String[DAY_COUNT];
+        final String[] monthDay = new String[DAY_COUNT];
+
+        Labels(Context context, long now) {
+            locale = Locale.getDefault();
+            Time time = new Time();
+            time.set(now);
+            gmtoff = time.gmtoff;
+            todayJulianDay = Time.getJulianDay(now, gmtoff);
+            firstJulianDay = todayJulianDay + FIRST_DAY_OFFSET;
+
+            // The table goes stale at the next local midnight.
+            time.setJulianDay(todayJulianDay + 1);
+            validUntil = time.toMillis(true);
+
+            Formatters formatters = new Formatters(context);
+            for (int i = 0; i < DAY_COUNT; i++) {
+                int julianDay = firstJulianDay + i;
+                // Format from noon, well clear of any daylight saving change at midnight
+                time.setJulianDay(julianDay);
+                time.hour = 12;
+                long millis = time.toMillis(true);
+
+                dayName[i] = formatters.dayName(julianDay, todayJulianDay, millis);
+                monthDay[i] = formatters.monthDay(millis);
+                friendly[i] = formatters.friendly(julianDay, todayJulianDay, millis, dayName[i]);
+                friendlyLong[i] = julianDay == todayJulianDay
+                        ? formatters.fullFriendly(dayName[i], monthDay[i]) : friendly[i];
+                fullFriendly[i] = formatters.fullFriendly(dayName[i], monthDay[i]);
+            }
+        }
+
+        // Returns the table index for the given time, or -1 if it falls outside the table.
+        int indexOf(long dateInMillis) {
+            int index = Time.getJulianDay(dateInMillis, gmtoff) - firstJulianDay;
+            return index >= 0 && index < DAY_COUNT ? index : -1;
+        }
+
+        boolean isCurrent(long now) {
+            return now < validUntil && locale.equals(Locale.getDefault());
+        }
+    }
+
+    /**
+     * The formatting rules themselves, used to build the table and for days outside it.
+     */
+    private static final class Formatters {
+        private final Context mContext;
+        private final SimpleDateFormat mDayFormat = new SimpleDateFormat("EEEE");
+        private final SimpleDateFormat mShortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+        private final SimpleDateFormat mMonthDayFormat = new SimpleDateFormat("MMMM dd");
+
+        Formatters(Context context) {
+            mContext = context;
+        }
+
+        // "Today", "Tomorrow", or the day of the week, e.g "Wednesday"
+        String dayName(int julianDay, int todayJulianDay, long millis) {
+            if (julianDay == todayJulianDay) {
+                return mContext.getString(R.string.today);
+            } else if (julianDay == todayJulianDay + 1) {
+                return mContext.getString(R.string.tomorrow);
+            }
+            return mDayFormat.format(millis);
+        }
+
+        // "December 06"
+        String monthDay(long millis) {
+            return mMonthDayFormat.format(millis);
+        }
+
+        // The day name for the coming week, and "Mon Jun 03" after that
+        String friendly(int julianDay, int todayJulianDay, long millis, String dayName) {
+            if (julianDay < todayJulianDay + 7) {
+                return dayName;
+            }
+            return mShortenedDateFormat.format(millis);
+        }
+
+        // "Today, June 24"
+        String fullFriendly(String dayName, String monthDay) {
+            return mContext.getString(R.string.format_full_friendly_date, dayName, monthDay);
+        }
+    }
+
+    private static Labels getLabels(Context context) {
+        long now = System.currentTimeMillis();
+        Labels labels = sLabels;
+        if (null != labels && labels.isCurrent(now)) {
+            return labels;
+        }
+        synchronized (sLock) {
+            labels = sLabels;
+            if (null == labels || !labels.isCurrent(now)) {
+                Context appContext = context.getApplicationContext();
+                registerReceiver(appContext);
+                labels = new Labels(appContext, now);
+                sLabels = labels;
+            }
+            return labels;
+        }
+    }
+
+    // The table only checks the clock and the locale on each lookup; comparing the time zone
+    // would allocate, since TimeZone.getDefault() returns a copy.  Listen for changes instead.
+    // The loaded forecast holds labels from the table, so it's dropped along with it.
+    private static void registerReceiver(final Context appContext) {
+        if (null != sReceiver) return;
+        sReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+                ForecastRepository.getInstance(appContext).invalidate();
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_DATE_CHANGED);
+        appContext.registerReceiver(sReceiver, filter);
+    }
+
+    /**
+     * Drops the current table, so the next lookup rebuilds it.
+     */
+    public static void invalidate() {
+        synchronized (sLock) {
+            sLabels = null;
+        }
+    }
+
+    /**
+     * @return "Today, June 24" for today if displayLongToday is set, the day name for the
+     * coming week, and "Mon Jun 03" after that
+     */
+    public static String getFriendlyDayString(Context context, long dateInMillis,
+                                              boolean displayLongToday) {
+        Labels labels = getLabels(context);
+        int index = labels.indexOf(dateInMillis);
+        if (index != -1) {
+            return displayLongToday ? labels.friendlyLong[index] : labels.friendly[index];
+        }
+        Formatters formatters = new Formatters(context);
+        int julianDay = Time.getJulianDay(dateInMillis, labels.gmtoff);
+        return formatters.friendly(julianDay, labels.todayJulianDay, dateInMillis,
+                formatters.dayName(julianDay, labels.todayJulianDay, dateInMillis));
+    }
+
+    /**
+     * @return the day name and date, e.g "Wednesday, June 24"
+     */
+    public static String getFullFriendlyDayString(Context context, long dateInMillis) {
+        Labels labels = getLabels(context);
+        int index = labels.indexOf(dateInMillis);
+        if (index != -1) {
+            return labels.fullFriendly[index];
+        }
+        Formatters formatters = new Formatters(context);
+        int julianDay = Time.getJulianDay(dateInMillis, labels.gmtoff);
+        return formatters.fullFriendly(
+                formatters.dayName(julianDay, labels.todayJulianDay, dateInMillis),
+                formatters.monthDay(dateInMillis));
+    }
+
+    /**
+     * @return "Today", "Tomorrow", or the day of the week, e.g "Wednesday"
+     */
+    public static String getDayName(Context context, long dateInMillis) {
+        Labels labels = getLabels(context);
+        int index = labels.indexOf(dateInMillis);
+        if (index != -1) {
+            return labels.dayName[index];
+        }
+        return new Formatters(context).dayName(Time.getJulianDay(dateInMillis, labels.gmtoff),
+                labels.todayJulianDay, dateInMillis);
+    }
+
+    /**
+     * @return the month and day, e.g "June 24"
+     */
+    public static String getFormattedMonthDay(Context context, long dateInMillis) {
+        Labels labels = getLabels(context);
+        int index = labels.indexOf(dateInMillis);
+        if (index != -1) {
+            return labels.monthDay[index];
+        }
+        return new Formatters(context).monthDay(dateInMillis);
+    }
+}
@@ -15,13 +15,14 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
+import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.CardView;
@@ -39,12 +40,18 @@ import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.ArtPrefetcher;
+
+import java.util.List;
 
 /**
- * A placeholder fragment containing a simple view.
+ * Shows one day of the forecast.  The day usually comes straight from the
+ * {@link ForecastRepository}, so the view is bound as soon as it is created; the provider is
+ * only queried for days that aren't in the repository's forecast, and those are formatted on the
+ * loader's thread.
  */
-public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<ForecastRow>,
+        ForecastRepository.Subscriber {
 
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
     static final String DETAIL_URI = "URI";
@@ -58,34 +65,10 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     private static final int DETAIL_LOADER = 0;
 
-    private static final String[] DETAIL_COLUMNS = {
-            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
-            WeatherEntry.COLUMN_DATE,
-            WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherEntry.COLUMN_HUMIDITY,
-            WeatherEntry.COLUMN_PRESSURE,
-            WeatherEntry.COLUMN_WIND_SPEED,
-            WeatherEntry.COLUMN_DEGREES,
-            WeatherEntry.COLUMN_WEATHER_ID,
-            // This works because the WeatherProvider returns location data joined with
-            // weather data, even though they're stored in two different tables.
-            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
-    };
-
-    // These indices are tied to DETAIL_COLUMNS.  If DETAIL_COLUMNS changes, these
-    // must change.
-    public static final int COL_WEATHER_ID = 0;
-    public static final int COL_WEATHER_DATE = 1;
-    public static final int COL_WEATHER_DESC = 2;
-    public static final int COL_WEATHER_MAX_TEMP = 3;
-    public static final int COL_WEATHER_MIN_TEMP = 4;
-    public static final int COL_WEATHER_HUMIDITY = 5;
-    public static final int COL_WEATHER_PRESSURE = 6;
-    public static final int COL_WEATHER_WIND_SPEED = 7;
-    public static final int COL_WEATHER_DEGREES = 8;
-    public static final int COL_WEATHER_CONDITION_ID = 9;
+    private ForecastRepository mRepository;
+    // The row on screen, and whether it came from the repository rather than our own loader
+    private ForecastRow mRow;
+    private boolean mRowFromRepository;
 
     private ImageView mIconView;
     private TextView mDateView;
@@ -153,10 +136,67 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
-        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        mRepository = ForecastRepository.getInstance(getActivity());
+        if ( null != mUri ) {
+            // Bind right away if the day is loaded; otherwise wait to subscribe
+            ForecastRepository.Forecast forecast = mRepository.getCurrent();
+            if ( null != forecast ) {
+                showForecast(forecast);
+            }
+        } else {
+            ViewParent vp = getView().getParent();
+            if ( vp instanceof CardView ) {
+                ((View)vp).setVisibility(View.INVISIBLE);
+            }
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        // Delivers the current forecast, or loads it
+        mRepository.subscribe(this);
+    }
+
+    @Override
+    public void onStop() {
+        mRepository.unsubscribe(this);
+        super.onStop();
+    }
+
+    @Override
+    public void onForecastChanged(ForecastRepository.Forecast forecast) {
+        // The saved forecast shown while the list loads is followed by the real one
+        if ( null != mUri && forecast.published ) {
+            showForecast(forecast);
+        }
+    }
+
+    // Binds the day from the forecast if it's there, otherwise loads it from the provider.
+    private void showForecast(ForecastRepository.Forecast forecast) {
+        ForecastRow row = null;
+        if ( forecast.locationSetting.equals(
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(mUri)) ) {
+            row = forecast.find(WeatherContract.WeatherEntry.getDateFromUri(mUri));
+        }
+        if ( null != row ) {
+            getLoaderManager().destroyLoader(DETAIL_LOADER);
+            mRowFromRepository = true;
+            if ( row != mRow ) {
+                bindForecast(row);
+                finishBinding();
+            }
+        } else if ( null == mRow ) {
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        } else if ( mRowFromRepository ) {
+            // Our day isn't in the new forecast, e.g. because it's now in the past, so query
+            // for it ourselves.  Rows from our own loader are kept current by it.
+            mRowFromRepository = false;
+            getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+        }
+    }
+
     void onLocationChanged( String newLocation ) {
         // replace the uri, since the location has changed
         Uri uri = mUri;
@@ -164,106 +204,82 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
             Uri updatedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(newLocation, date);
             mUri = updatedUri;
-            getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            // The repository is reloading for the new location, and will tell us when it's
+            // done, unless it has already
+            ForecastRepository.Forecast forecast = mRepository.getCurrent();
+            if ( null != forecast ) {
+                showForecast(forecast);
+            } else if ( null != mRow && !mRowFromRepository ) {
+                // Our own loader is still watching the old location
+                getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            }
         }
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        if ( null != mUri ) {
-            // Now create and return a CursorLoader that will take care of
-            // creating a Cursor for the data being displayed.
-            return new CursorLoader(
-                    getActivity(),
-                    mUri,
-                    DETAIL_COLUMNS,
-                    null,
-                    null,
-                    null
-            );
+    public Loader<ForecastRow> onCreateLoader(int id, Bundle args) {
+        return new DayLoader(getActivity(), mUri);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<ForecastRow> loader, ForecastRow row) {
+        if (null != row) {
+            bindForecast(row);
         }
+        finishBinding();
+    }
+
+    private void bindForecast(ForecastRow row) {
+        mRow = row;
         ViewParent vp = getView().getParent();
         if ( vp instanceof CardView ) {
-            ((View)vp).setVisibility(View.INVISIBLE);
+            ((View)vp).setVisibility(View.VISIBLE);
         }
-        return null;
-    }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data != null && data.moveToFirst()) {
-            ViewParent vp = getView().getParent();
-            if ( vp instanceof CardView ) {
-                ((View)vp).setVisibility(View.VISIBLE);
-            }
+        if ( null == row.artUrl ) {
+            mIconView.setImageResource(row.artResource);
+        } else {
+            // Use weather art image
+            ArtPrefetcher.loadViewArt(Glide.with(this), row.artUrl)
+                    .error(row.artResource)
+                    .crossFade()
+                    .into(mIconView);
+        }
 
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
-
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-            } else {
-                // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
-                        .crossFade()
-                        .into(mIconView);
-            }
+        mDateView.setText(row.fullDateText);
 
-            // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
-            mDateView.setText(dateText);
-
-            // Get description from weather condition ID
-            String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
-            mDescriptionView.setText(description);
-            mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
-
-            // For accessibility, add a content description to the icon field. Because the ImageView
-            // is independently focusable, it's better to have a description of the image. Using
-            // null is appropriate when the image is purely decorative or when the image already
-            // has text describing it in the same UI component.
-            mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-            mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
-            mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-            mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
-            mWindLabelView.setContentDescription(mWindView.getContentDescription());
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(COL_WEATHER_PRESSURE);
-            mPressureView.setText(getString(R.string.format_pressure, pressure));
-            mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
-            mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+        mDescriptionView.setText(row.description);
+        mDescriptionView.setContentDescription(row.descriptionA11y);
 
-        }
+        // For accessibility, add a content description to the icon field. Because the ImageView
+        // is independently focusable, it's better to have a description of the image. Using
+        // null is appropriate when the image is purely decorative or when the image already
+        // has text describing it in the same UI component.
+        mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, row.description));
+
+        mHighTempView.setText(row.highText);
+        mHighTempView.setContentDescription(row.highA11y);
+
+        mLowTempView.setText(row.lowText);
+        mLowTempView.setContentDescription(row.lowA11y);
+
+        mHumidityView.setText(row.humidityText);
+        mHumidityView.setContentDescription(row.humidityA11y);
+        mHumidityLabelView.setContentDescription(row.humidityA11y);
+
+        mWindView.setText(row.windText);
+        mWindView.setContentDescription(row.windA11y);
+        mWindLabelView.setContentDescription(row.windA11y);
+
+        mPressureView.setText(row.pressureText);
+        mPressureView.setContentDescription(row.pressureA11y);
+        mPressureLabelView.setContentDescription(row.pressureA11y);
+
+        // We still need this for the share intent
+        mForecast = row.shareText;
+    }
+
+    private void finishBinding() {
         AppCompatActivity activity = (AppCompatActivity)getActivity();
         Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
 
@@ -288,5 +304,72 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) { }
+    public void onLoaderReset(Loader<ForecastRow> loader) { }
+
+    /**
+     * Queries one day from the provider and formats it in the background, and again whenever the
+     * weather data changes, as a CursorLoader would.
+     */
+    private static class DayLoader extends AsyncTaskLoader<ForecastRow> {
+        private final Uri mUri;
+        private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+        private boolean mObserving;
+        private ForecastRow mRow;
+
+        DayLoader(Context context, Uri uri) {
+            super(context);
+            mUri = uri;
+        }
+
+        @Override
+        public ForecastRow loadInBackground() {
+            Cursor cursor = getContext().getContentResolver().query(mUri,
+                    ForecastFragment.FORECAST_COLUMNS, null, null, null);
+            if (null == cursor) return null;
+            try {
+                List<ForecastRow> rows = ForecastRow.project(getContext(), cursor);
+                return rows.isEmpty() ? null : rows.get(0);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void deliverResult(ForecastRow row) {
+            mRow = row;
+            if (isStarted()) {
+                super.deliverResult(row);
+            }
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (!mObserving) {
+                getContext().getContentResolver().registerContentObserver(
+                        WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+                mObserving = true;
+            }
+            if (null != mRow) {
+                deliverResult(mRow);
+            }
+            if (takeContentChanged() || null == mRow) {
+                forceLoad();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            onStopLoading();
+            if (mObserving) {
+                getContext().getContentResolver().unregisterContentObserver(mObserver);
+                mObserving = false;
+            }
+            mRow = null;
+        }
+    }
 }
\ No newline at end of file
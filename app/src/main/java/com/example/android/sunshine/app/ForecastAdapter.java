@@ -16,7 +16,6 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
@@ -30,25 +29,34 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.perf.JankMonitor;
+import com.example.android.sunshine.app.sync.ArtPrefetcher;
+
+import java.util.Collections;
+import java.util.List;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * from a {@link ForecastRepository.Forecast} to a {@link android.support.v7.widget.RecyclerView}.
  */
-public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder>
+        implements ItemChoiceManager.PositionLookup {
 
-    private static final int VIEW_TYPE_TODAY = 0;
-    private static final int VIEW_TYPE_FUTURE_DAY = 1;
+    static final int VIEW_TYPE_TODAY = 0;
+    static final int VIEW_TYPE_FUTURE_DAY = 1;
 
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    private List<ForecastRow> mRows = Collections.emptyList();
+    // Rebuilt whenever mRows changes
+    private ForecastIndex mIndex = ForecastIndex.EMPTY;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    // Times each bind when set
+    private JankMonitor mJankMonitor;
 
     /**
      * Cache of the children views for a forecast list item.
@@ -73,9 +81,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) return;
+            mClickHandler.onClick(mRows.get(adapterPosition).date, this);
             mICM.onClick(this);
         }
     }
@@ -88,6 +95,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Must be set before the ItemChoiceManager registers its observer
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -124,26 +133,26 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        long bindStart = null != mJankMonitor ? System.nanoTime() : 0;
+        // Everything was formatted when the data was loaded; just hand it to the views.
+        ForecastRow row = mRows.get(position);
         int defaultImage;
         boolean useLongToday;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
+                defaultImage = row.artResource;
                 useLongToday = true;
                 break;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
+                defaultImage = row.iconResource;
                 useLongToday = false;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( null == row.artUrl ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+            ArtPrefetcher.loadViewArt(Glide.with(mContext), row.artUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -153,36 +162,30 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
-
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(useLongToday ? row.longDateText : row.dateText);
 
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.descriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.highText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.highA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.lowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.lowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+
+        if (null != mJankMonitor) {
+            mJankMonitor.recordBind(System.nanoTime() - bindStart);
+        }
+    }
+
+    public void setJankMonitor(JankMonitor jankMonitor) {
+        mJankMonitor = jankMonitor;
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
@@ -208,18 +211,57 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mRows.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).stableId;
+    }
+
+    /**
+     * @return the position of the row for a normalized date, or {@link RecyclerView#NO_POSITION}
+     */
+    public int getPositionForDate(long date) {
+        return mIndex.positionOfDate(date);
+    }
+
+    @Override
+    public int getPositionForId(long id) {
+        return mIndex.positionOfId(id);
+    }
+
+    /**
+     * Shows a forecast from the {@link ForecastRepository}, only touching the rows that changed.
+     */
+    public void swapForecast(ForecastRepository.Forecast forecast) {
+        List<ForecastRow> oldRows = mRows;
+        if (forecast.rows == oldRows) return;
+        ForecastDiff diff = forecast.diff;
+        if (diff.getOldRows() != oldRows) {
+            // The repository diffed against rows we aren't showing, e.g. the saved snapshot
+            // or another location's forecast, so diff against ours.
+            diff = ForecastDiff.calculate(oldRows, forecast.rows);
+        }
+        mRows = forecast.rows;
+        // The index must be current before the notifications reach the ItemChoiceManager
+        mIndex = new ForecastIndex(mRows);
+        diff.dispatchTo(this);
+        // The first row may use the today layout, so a new first row must be rebound
+        // even if its content didn't change.
+        if (mUseTodayLayout && !mRows.isEmpty() && !oldRows.isEmpty()
+                && mRows.get(0).stableId != oldRows.get(0).stableId) {
+            notifyItemChanged(0);
+        }
+        updateEmptyView();
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    private void updateEmptyView() {
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    public List<ForecastRow> getRows() {
+        return mRows;
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The list of insert, remove, move and change notifications that turns one list of
+ * {@link ForecastRow}s into another, matching rows by {@link ForecastRow#stableId}.
+ * <p/>
+ * The support library we build against predates DiffUtil, and forecast lists are short (two
+ * weeks at most), so this computes a simple keyed diff rather than a minimal edit script.
+ * Computing it is meant to happen off the UI thread; dispatching it is cheap.
+ */
+public class ForecastDiff {
+    private static final int OP_REMOVE = 0;
+    private static final int OP_INSERT = 1;
+    private static final int OP_MOVE = 2;
+    private static final int OP_CHANGE = 3;
+
+    private final List<ForecastRow> mOldRows;
+    private final List<ForecastRow> mNewRows;
+    // Each operation is {type, position, count or target position}
+    private final ArrayList<int[]> mOps = new ArrayList<int[]>();
+
+    private ForecastDiff(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        mOldRows = oldRows;
+        mNewRows = newRows;
+    }
+
+    /**
+     * Works out the notifications needed to go from oldRows to newRows.
+     */
+    public static ForecastDiff calculate(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        ForecastDiff diff = new ForecastDiff(oldRows, newRows);
+
+        HashSet<Long> newKeys = new HashSet<Long>();
+        for (ForecastRow row : newRows) {
+            newKeys.add(row.stableId);
+        }
+
+        // Simulate the adapter's list as the operations are applied to it.
+        ArrayList<ForecastRow> current = new ArrayList<ForecastRow>(oldRows);
+
+        // Removals first, from the end so earlier positions stay valid.
+        for (int i = current.size() - 1; i >= 0; i--) {
+            if (!newKeys.contains(current.get(i).stableId)) {
+                current.remove(i);
+                diff.add(OP_REMOVE, i, 1);
+            }
+        }
+
+        // Then walk the new list, moving or inserting whatever isn't already in place.
+        for (int position = 0; position < newRows.size(); position++) {
+            ForecastRow row = newRows.get(position);
+            int currentPosition = indexOf(current, row.stableId, position);
+            if (currentPosition == -1) {
+                current.add(position, row);
+                diff.add(OP_INSERT, position, 1);
+                continue;
+            }
+            if (currentPosition != position) {
+                current.add(position, current.remove(currentPosition));
+                diff.add(OP_MOVE, currentPosition, position);
+            }
+            if (!current.get(position).hasSameContent(row)) {
+                diff.add(OP_CHANGE, position, 1);
+            }
+        }
+        return diff;
+    }
+
+    private static int indexOf(List<ForecastRow> rows, long stableId, int from) {
+        for (int i = from; i < rows.size(); i++) {
+            if (rows.get(i).stableId == stableId) return i;
+        }
+        return -1;
+    }
+
+    // Adds an operation, folding it into the previous one when they form a single range.
+    private void add(int type, int position, int value) {
+        if (type != OP_MOVE && !mOps.isEmpty()) {
+            int[] last = mOps.get(mOps.size() - 1);
+            if (last[0] == type) {
+                if (type == OP_REMOVE && position == last[1] - 1) {
+                    // removals run backwards
+                    last[1] = position;
+                    last[2] += value;
+                    return;
+                } else if (type != OP_REMOVE && position == last[1] + last[2]) {
+                    last[2] += value;
+                    return;
+                }
+            }
+        }
+        mOps.add(new int[]{type, position, value});
+    }
+
+    /**
+     * @return the rows this diff starts from; it only applies to an adapter showing these
+     */
+    public List<ForecastRow> getOldRows() {
+        return mOldRows;
+    }
+
+    public List<ForecastRow> getNewRows() {
+        return mNewRows;
+    }
+
+    public boolean isEmpty() {
+        return mOps.isEmpty();
+    }
+
+    /**
+     * Sends the notifications to an adapter that already holds {@link #getNewRows()}.
+     */
+    public void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int[] op : mOps) {
+            switch (op[0]) {
+                case OP_REMOVE:
+                    adapter.notifyItemRangeRemoved(op[1], op[2]);
+                    break;
+                case OP_INSERT:
+                    adapter.notifyItemRangeInserted(op[1], op[2]);
+                    break;
+                case OP_MOVE:
+                    adapter.notifyItemMoved(op[1], op[2]);
+                    break;
+                case OP_CHANGE:
+                    adapter.notifyItemRangeChanged(op[1], op[2]);
+                    break;
+            }
+        }
+    }
+}
@@ -20,21 +20,19 @@ import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -46,12 +44,16 @@ import android.widget.AbsListView;
 import android.widget.TextView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.perf.JankMonitor;
+import com.example.android.sunshine.app.startup.StartupTrace;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.List;
+
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ForecastFragment extends Fragment implements ForecastRepository.Subscriber, SharedPreferences.OnSharedPreferenceChangeListener {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
@@ -59,13 +61,20 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    private ForecastRepository mRepository;
+    // Only set while the frame stats setting is on
+    private JankMonitor mJankMonitor;
+    private ViewHolderPreinflater mPreinflater;
 
     private static final String SELECTED_KEY = "selected_position";
 
-    private static final int FORECAST_LOADER = 0;
+    // Rows to create ahead of the first screen, beyond those that fit on it
+    private static final int PREINFLATED_FLING_ROWS = 2;
+    // A whole forecast
+    private static final int MAX_PREINFLATED_ROWS = 14;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
-    private static final String[] FORECAST_COLUMNS = {
+    static final String[] FORECAST_COLUMNS = {
             // In this case the id needs to be fully qualified with a table name, since
             // the content provider joins the location & weather tables in the background
             // (both have an _id column)
@@ -80,7 +89,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            // The detail view is bound from the same rows, so they carry its columns too
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
     };
 
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
@@ -94,6 +108,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     static final int COL_WEATHER_CONDITION_ID = 6;
     static final int COL_COORD_LAT = 7;
     static final int COL_COORD_LONG = 8;
+    static final int COL_WEATHER_HUMIDITY = 9;
+    static final int COL_WEATHER_PRESSURE = 10;
+    static final int COL_WEATHER_WIND_SPEED = 11;
+    static final int COL_WEATHER_DEGREES = 12;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -117,6 +135,25 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         setHasOptionsMenu(true);
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        StartupTrace.trackFirstForecastRow(mRecyclerView);
+        mRepository.subscribe(this);
+        if (null != mJankMonitor) {
+            mJankMonitor.attach(getActivity(), mRecyclerView);
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        mRepository.unsubscribe(this);
+        if (null != mJankMonitor) {
+            mJankMonitor.detach();
+        }
+    }
+
     @Override
     public void onResume() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
@@ -197,13 +234,18 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             }
         }, emptyView, mChoiceMode);
 
+        // The setting is read as the list is created, so changing it applies to the next one
+        mJankMonitor = PreferenceSnapshot.get(getActivity()).frameStatsEnabled
+                ? new JankMonitor(getActivity()) : null;
+        mForecastAdapter.setJankMonitor(mJankMonitor);
+
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                mRecyclerView.addOnScrollListener(monitored("parallax", new RecyclerView.OnScrollListener() {
                     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
                     @Override
                     public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
@@ -215,7 +257,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                             parallaxView.setTranslationY(Math.min(0, parallaxView.getTranslationY() - dy / 2));
                         }
                     }
-                });
+                }));
             }
         }
 
@@ -223,7 +265,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if (null != appbarView) {
             ViewCompat.setElevation(appbarView, 0);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                mRecyclerView.addOnScrollListener(monitored("elevation", new RecyclerView.OnScrollListener() {
                     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
                     @Override
                     public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
@@ -233,7 +275,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                             appbarView.setElevation(appbarView.getTargetElevation());
                         }
                     }
-                });
+                }));
             }
         }
 
@@ -251,6 +293,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         return rootView;
     }
 
+    // Times the listener when the frame stats are on
+    private RecyclerView.OnScrollListener monitored(String name,
+                                                    RecyclerView.OnScrollListener listener) {
+        return null == mJankMonitor ? listener : mJankMonitor.wrap(name, listener);
+    }
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         // We hold for transition here just in-case the activity
@@ -259,13 +307,30 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
-        getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        preinflateRows();
+        mRepository = ForecastRepository.getInstance(getActivity());
         super.onActivityCreated(savedInstanceState);
     }
 
-    // since we read the location when we create the loader, all we need to do is restart things
+    // Creates the rows for the first screen whenever the main thread is idle while the forecast
+    // is read, so laying it out doesn't have to inflate them.
+    private void preinflateRows() {
+        TypedValue rowHeight = new TypedValue();
+        getActivity().getTheme().resolveAttribute(android.R.attr.listPreferredItemHeight,
+                rowHeight, true);
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int rows = Math.min(MAX_PREINFLATED_ROWS, PREINFLATED_FLING_ROWS
+                + metrics.heightPixels / Math.max(1, (int) rowHeight.getDimension(metrics)));
+        int todayRows = mUseTodayLayout ? 1 : 0;
+        mPreinflater = new ViewHolderPreinflater(mRecyclerView)
+                .add(ForecastAdapter.VIEW_TYPE_TODAY, todayRows)
+                .add(ForecastAdapter.VIEW_TYPE_FUTURE_DAY, rows - todayRows)
+                .start();
+    }
+
+    // the repository reads the location as it loads, so all we need to do is reload
     void onLocationChanged() {
-        getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        mRepository.invalidate();
     }
 
     private void openPreferredLocationInMap() {
@@ -273,11 +338,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
         if (null != mForecastAdapter) {
-            Cursor c = mForecastAdapter.getCursor();
-            if (null != c) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
+            List<ForecastRow> rows = mForecastAdapter.getRows();
+            if (!rows.isEmpty()) {
+                ForecastRow row = rows.get(0);
+                String posLat = Double.toString(row.coordLat);
+                String posLong = Double.toString(row.coordLong);
                 Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -302,33 +367,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // This is called when a new Loader needs to be created.  This
-        // fragment only uses one loader, so we don't care about checking the id.
-
-        // To only show current and future dates, filter the query to return weather only for
-        // dates after or including today.
-
-        // Sort order:  Ascending, by date.
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-
-        String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
-
-        return new CursorLoader(getActivity(),
-                weatherForLocationUri,
-                FORECAST_COLUMNS,
-                null,
-                null,
-                sortOrder);
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+    public void onForecastChanged(ForecastRepository.Forecast forecast) {
+        mForecastAdapter.swapForecast(forecast);
+        // What the last sync saved, painted while the repository opens the database; the
+        // real forecast follows
+        if (!forecast.published) return;
         updateEmptyView();
-        if ( data.getCount() == 0 ) {
+        if ( forecast.rows.isEmpty() ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
             mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
@@ -341,16 +386,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            position = mForecastAdapter.getPositionForDate(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
@@ -374,6 +410,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
 
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (null != mPreinflater) {
+            mPreinflater.cancel();
+            mPreinflater = null;
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -382,11 +427,6 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mForecastAdapter.swapCursor(null);
-    }
-
     public void setUseTodayLayout(boolean useTodayLayout) {
         mUseTodayLayout = useTodayLayout;
         if (mForecastAdapter != null) {
@@ -432,6 +472,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(getString(R.string.pref_location_status_key))) {
+            // This may run before the settings snapshot hears about the change
+            PreferenceSnapshot.refresh(getActivity());
             updateEmptyView();
         }
     }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Finds the position of a forecast row by its date or its {@link ForecastRow#stableId}, without
+ * walking the list.  Built once for each list of rows the adapter shows.
+ */
+public final class ForecastIndex {
+    static final ForecastIndex EMPTY = new ForecastIndex(Collections.<ForecastRow>emptyList());
+
+    private final HashMap<Long, Integer> mPositionsByDate;
+    private final HashMap<Long, Integer> mPositionsById;
+
+    public ForecastIndex(List<ForecastRow> rows) {
+        int capacity = rows.size() * 2;
+        mPositionsByDate = new HashMap<Long, Integer>(capacity);
+        mPositionsById = new HashMap<Long, Integer>(capacity);
+        for (int position = 0; position < rows.size(); position++) {
+            ForecastRow row = rows.get(position);
+            mPositionsByDate.put(row.date, position);
+            mPositionsById.put(row.stableId, position);
+        }
+    }
+
+    /**
+     * @return the position of the row for a normalized date, or
+     * {@link RecyclerView#NO_POSITION}
+     */
+    public int positionOfDate(long date) {
+        Integer position = mPositionsByDate.get(date);
+        return null == position ? RecyclerView.NO_POSITION : position;
+    }
+
+    /**
+     * @return the position of the row with a stable id, or {@link RecyclerView#NO_POSITION}
+     */
+    public int positionOfId(long stableId) {
+        Integer position = mPositionsById.get(stableId);
+        return null == position ? RecyclerView.NO_POSITION : position;
+    }
+}
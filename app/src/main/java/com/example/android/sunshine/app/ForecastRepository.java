@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.support.v4.os.TraceCompat;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The forecast for the preferred location, from today on, as a stream of immutable snapshots
+ * shared by everything that shows it: the list, the detail view and the widgets.
+ * <p/>
+ * The provider is queried, and the rows formatted and diffed against the last forecast, on a
+ * single background thread, once for each change to the weather data however many subscribers
+ * there are.  Subscribers are given the current forecast as they subscribe, and every new one
+ * after that, on the main thread.  While nobody is subscribed, changes only drop the forecast,
+ * and the next subscriber or {@link #get()} loads it again.
+ */
+public class ForecastRepository {
+    private static final String LOG_TAG = ForecastRepository.class.getSimpleName();
+
+    private static ForecastRepository sInstance;
+
+    /**
+     * Given each new forecast, on the main thread.
+     */
+    public interface Subscriber {
+        void onForecastChanged(Forecast forecast);
+    }
+
+    /**
+     * The formatted forecast for one location, and how it differs from the one before it.
+     */
+    public static final class Forecast {
+        public final String locationSetting;
+        // Unmodifiable, in date order
+        public final List<ForecastRow> rows;
+        public final ForecastDiff diff;
+        // False for the forecast the last sync saved, which subscribers are shown while the
+        // provider is queried, but which never becomes the current forecast
+        public final boolean published;
+        private final HashMap<Long, ForecastRow> mRowsByDate;
+        // The rows' "Today" and "Tomorrow" labels go stale at the next local midnight
+        private final long mValidUntil;
+
+        Forecast(String locationSetting, ForecastDiff diff) {
+            this(locationSetting, diff, true);
+        }
+
+        Forecast(String locationSetting, ForecastDiff diff, boolean published) {
+            this.locationSetting = locationSetting;
+            this.diff = diff;
+            this.published = published;
+            Time time = new Time();
+            time.setToNow();
+            time.setJulianDay(Time.getJulianDay(time.toMillis(false), time.gmtoff) + 1);
+            mValidUntil = time.toMillis(true);
+            rows = diff.getNewRows();
+            mRowsByDate = new HashMap<Long, ForecastRow>(rows.size() * 2);
+            for (ForecastRow row : rows) {
+                mRowsByDate.put(row.date, row);
+            }
+        }
+
+        /**
+         * @return the row for a normalized date, or null if that day isn't in the forecast
+         */
+        public ForecastRow find(long date) {
+            return mRowsByDate.get(date);
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, LOG_TAG);
+                }
+            });
+    private final ArrayList<Subscriber> mSubscribers = new ArrayList<Subscriber>();
+    // Whether the saved forecast has been offered to subscribers.  Only used on the main thread.
+    private boolean mSnapshotOffered;
+
+    // The current forecast, or null when the data has changed since it was loaded.  Both are
+    // guarded by this, and the version counts the changes.
+    private Forecast mForecast;
+    private int mVersion;
+    // The rows of the last forecast loaded, which the next one is diffed against.  Only used
+    // on the loading thread.
+    private List<ForecastRow> mLastRows = Collections.emptyList();
+    // A location with no forecast of its own yet, and the nearby location whose forecast is
+    // shown for it until it has.  Guarded by this.
+    private String mStandInFor;
+    private String mStandIn;
+    // Drops the stand-in once it no longer applies.  SharedPreferences only keeps weak
+    // references to its listeners, so hold on to ours.
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPrefsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    if (key.equals(mContext.getString(R.string.pref_location_status_key))) {
+                        // The sync for the place failed, so its forecast isn't on its way
+                        int status = prefs.getInt(key,
+                                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+                        if (status != SunshineSyncAdapter.LOCATION_STATUS_OK
+                                && status != SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN) {
+                            dropStandIn(null);
+                        }
+                    } else if (key.equals(mContext.getString(R.string.pref_location_key))) {
+                        dropStandIn(prefs.getString(key, null));
+                    }
+                }
+            };
+
+    private ForecastRepository(Context context) {
+        mContext = context;
+        context.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true,
+                new ContentObserver(mMainHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                });
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(mPrefsListener);
+    }
+
+    public static synchronized ForecastRepository getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new ForecastRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts giving the subscriber each new forecast, beginning with the current one.  When
+     * nothing has been loaded since the app started, subscribers are first given the forecast
+     * the last sync saved, unpublished, while the provider is queried.  Call on the main thread.
+     */
+    public void subscribe(Subscriber subscriber) {
+        mSubscribers.add(subscriber);
+        Forecast forecast = getCurrent();
+        if (null != forecast) {
+            subscriber.onForecastChanged(forecast);
+        } else {
+            if (!mSnapshotOffered) {
+                mSnapshotOffered = true;
+                loadSnapshot();
+            }
+            load();
+        }
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        mSubscribers.remove(subscriber);
+    }
+
+    /**
+     * Drops the forecast, e.g. because the data, the preferred location or the date has
+     * changed, and loads it again if anyone is subscribed.  Call on the main thread.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            mForecast = null;
+            mVersion++;
+        }
+        if (!mSubscribers.isEmpty()) {
+            load();
+        }
+    }
+
+    /**
+     * Shows a nearby location's forecast for a location until the location has a forecast of
+     * its own, its sync fails, or another location is picked.  The stand-in is only kept in
+     * memory; nothing is written to the provider.  Call on the main thread.
+     */
+    public void showStandIn(String locationSetting, String nearbyLocationSetting) {
+        synchronized (this) {
+            mStandInFor = locationSetting;
+            mStandIn = nearbyLocationSetting;
+        }
+        invalidate();
+    }
+
+    // Drops the stand-in unless it's for the given location, and reloads if it was showing
+    private void dropStandIn(String keepFor) {
+        synchronized (this) {
+            if (null == mStandInFor || mStandInFor.equals(keepFor)) return;
+            mStandInFor = null;
+            mStandIn = null;
+        }
+        invalidate();
+    }
+
+    /**
+     * @return the forecast for the preferred location, if it's loaded and current, or null
+     */
+    public synchronized Forecast getCurrent() {
+        Forecast forecast = mForecast;
+        if (null == forecast
+                || !forecast.locationSetting.equals(PreferenceSnapshot.get(mContext).location)
+                || System.currentTimeMillis() >= forecast.mValidUntil) {
+            return null;
+        }
+        return forecast;
+    }
+
+    /**
+     * @return the current forecast, loading it first if needed, or null if it couldn't be
+     * loaded.  Waits for the provider, so never call on the main thread.
+     */
+    public Forecast get() {
+        Forecast forecast = getCurrent();
+        if (null != forecast) return forecast;
+        try {
+            return load().get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error loading the forecast", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the row for a day, or null if that day of that location isn't loaded
+     */
+    public ForecastRow find(String locationSetting, long date) {
+        Forecast forecast = getCurrent();
+        if (null == forecast || !forecast.locationSetting.equals(locationSetting)) return null;
+        return forecast.find(date);
+    }
+
+    /**
+     * Reads the forecast the last sync saved to disk, which is quicker than the provider when
+     * nothing is loaded yet.  It isn't published, since the provider may have changed since.
+     *
+     * @return the saved forecast for the preferred location, or null if there isn't one
+     */
+    public Forecast readSnapshot() {
+        String locationSetting = PreferenceSnapshot.get(mContext).location;
+        Cursor cursor = ForecastSnapshot.query(mContext, locationSetting,
+                ForecastFragment.FORECAST_COLUMNS, System.currentTimeMillis());
+        if (null == cursor) return null;
+        try {
+            return new Forecast(locationSetting, ForecastDiff.calculate(
+                    Collections.<ForecastRow>emptyList(), ForecastRow.project(mContext, cursor)),
+                    false);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Reads the saved forecast on the loading thread, ahead of the provider query queued after
+    // it, and gives it to the subscribers unless the provider's forecast, or a change, gets
+    // there first.
+    private void loadSnapshot() {
+        final int version;
+        synchronized (this) {
+            version = mVersion;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Forecast snapshot = readSnapshot();
+                if (null == snapshot || snapshot.rows.isEmpty()) return;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (ForecastRepository.this) {
+                            if (null != mForecast || version != mVersion) return;
+                        }
+                        for (Subscriber subscriber : new ArrayList<Subscriber>(mSubscribers)) {
+                            subscriber.onForecastChanged(snapshot);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // Loads run one at a time, and one that finds the forecast already current returns it
+    // without querying, so requests made together share a single query.
+    private Future<Forecast> load() {
+        return mExecutor.submit(new Callable<Forecast>() {
+            @Override
+            public Forecast call() {
+                while (true) {
+                    String locationSetting = PreferenceSnapshot.get(mContext).location;
+                    int version;
+                    synchronized (ForecastRepository.this) {
+                        Forecast current = getCurrent();
+                        if (null != current) return current;
+                        version = mVersion;
+                    }
+
+                    Forecast forecast = query(locationSetting);
+                    synchronized (ForecastRepository.this) {
+                        // Go again if the data changed while we were reading it
+                        if (version != mVersion) continue;
+                        mForecast = forecast;
+                    }
+                    mLastRows = forecast.rows;
+                    deliver(forecast);
+                    return forecast;
+                }
+            }
+        });
+    }
+
+    private Forecast query(String locationSetting) {
+        TraceCompat.beginSection("ForecastRepository query");
+        try {
+            List<ForecastRow> rows = queryRows(locationSetting);
+            String standIn = null;
+            synchronized (this) {
+                if (locationSetting.equals(mStandInFor)) {
+                    if (rows.isEmpty()) {
+                        standIn = mStandIn;
+                    } else {
+                        // The real forecast has arrived
+                        mStandInFor = null;
+                        mStandIn = null;
+                    }
+                }
+            }
+            if (null != standIn) {
+                rows = queryRows(standIn);
+            }
+            return new Forecast(locationSetting, ForecastDiff.calculate(mLastRows, rows));
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private List<ForecastRow> queryRows(String locationSetting) {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                ForecastFragment.FORECAST_COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        List<ForecastRow> rows = ForecastRow.project(mContext, cursor);
+        if (null != cursor) cursor.close();
+        return rows;
+    }
+
+    private void deliver(final Forecast forecast) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // A newer forecast is on its way
+                if (forecast != getCurrent()) return;
+                // Subscribers may unsubscribe themselves
+                for (Subscriber subscriber : new ArrayList<Subscriber>(mSubscribers)) {
+                    subscriber.onForecastChanged(forecast);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One fully formatted day of the forecast, for both the list and the detail view.
+ * <p/>
+ * Everything that needs preferences, resources or date formatting is worked out once, off the
+ * UI thread, when the {@link ForecastRepository} loads new data; {@link ForecastAdapter} and
+ * {@link DetailFragment} only assign these values to views.  Rows are immutable, so they can be
+ * handed between threads freely.
+ */
+public final class ForecastRow {
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    public final long id;
+    // Identifies the day and location across syncs.  The database id can't be used for this,
+    // since every sync replaces the weather rows and gives them new ids.
+    public final long stableId;
+    public final long date;
+    public final int weatherId;
+    public final String locationSetting;
+    public final double coordLat;
+    public final double coordLong;
+
+    // "Today, June 24" for the today layout, "Today" everywhere else
+    public final String longDateText;
+    public final String dateText;
+
+    public final String description;
+    public final String descriptionA11y;
+    public final String highText;
+    public final String highA11y;
+    public final String lowText;
+    public final String lowA11y;
+
+    // Only shown in the detail view
+    public final String fullDateText;
+    public final String humidityText;
+    public final String humidityA11y;
+    public final String windText;
+    public final String windA11y;
+    public final String pressureText;
+    public final String pressureA11y;
+    // The text shared from the detail view
+    public final String shareText;
+
+    // Small list icon and large art, used as the image or as the fallback for artUrl
+    public final int iconResource;
+    public final int artResource;
+    // null when the local graphics are in use
+    public final String artUrl;
+
+    private ForecastRow(Context context, Cursor cursor, PreferenceSnapshot prefs) {
+        id = cursor.getLong(ForecastFragment.COL_WEATHER_ID);
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        locationSetting = cursor.getString(ForecastFragment.COL_LOCATION_SETTING);
+        coordLat = cursor.getDouble(ForecastFragment.COL_COORD_LAT);
+        coordLong = cursor.getDouble(ForecastFragment.COL_COORD_LONG);
+        stableId = stableIdFor(locationSetting, date);
+
+        longDateText = Utility.getFriendlyDayString(context, date, true);
+        dateText = Utility.getFriendlyDayString(context, date, false);
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+
+        double high = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        highText = prefs.formatTemperature(high);
+        highA11y = context.getString(R.string.a11y_high_temp, highText);
+        double low = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        lowText = prefs.formatTemperature(low);
+        lowA11y = context.getString(R.string.a11y_low_temp, lowText);
+
+        fullDateText = Utility.getFullFriendlyDayString(context, date);
+        humidityText = context.getString(R.string.format_humidity,
+                cursor.getFloat(ForecastFragment.COL_WEATHER_HUMIDITY));
+        humidityA11y = context.getString(R.string.a11y_humidity, humidityText);
+        windText = prefs.formatWind(cursor.getFloat(ForecastFragment.COL_WEATHER_WIND_SPEED),
+                cursor.getFloat(ForecastFragment.COL_WEATHER_DEGREES));
+        windA11y = context.getString(R.string.a11y_wind, windText);
+        pressureText = context.getString(R.string.format_pressure,
+                cursor.getFloat(ForecastFragment.COL_WEATHER_PRESSURE));
+        pressureA11y = context.getString(R.string.a11y_pressure, pressureText);
+        shareText = String.format("%s - %s - %s/%s", fullDateText, description, high, low);
+
+        WeatherCondition condition = WeatherCondition.forId(weatherId);
+        iconResource = condition == null ? -1 : condition.iconResource;
+        artResource = condition == null ? -1 : condition.artResource;
+        artUrl = prefs.localGraphics || condition == null ? null : condition.getArtUrl(prefs.artPack);
+    }
+
+    /**
+     * Combines the location and the day into a single id: the location's hash in the high 32
+     * bits and the day number in the low 32 bits.
+     */
+    public static long stableIdFor(String locationSetting, long date) {
+        long locationHash = null == locationSetting ? 0 : locationSetting.hashCode();
+        return (locationHash << 32) | ((date / DAY_IN_MILLIS) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return true if the two rows would look the same in the list
+     */
+    public boolean hasSameContent(ForecastRow other) {
+        return weatherId == other.weatherId
+                && iconResource == other.iconResource
+                && artResource == other.artResource
+                && stringsEqual(artUrl, other.artUrl)
+                && longDateText.equals(other.longDateText)
+                && dateText.equals(other.dateText)
+                && description.equals(other.description)
+                && highText.equals(other.highText)
+                && lowText.equals(other.lowText);
+    }
+
+    private static boolean stringsEqual(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Formats every row of a cursor with {@link ForecastFragment#FORECAST_COLUMNS}.  This reads
+     * preferences and resources, so call it off the UI thread where possible.
+     *
+     * @return an unmodifiable list of rows, in cursor order
+     */
+    public static List<ForecastRow> project(Context context, Cursor cursor) {
+        if (null == cursor) return Collections.emptyList();
+        // Preferences are read once per projection rather than once per row.
+        PreferenceSnapshot prefs = PreferenceSnapshot.get(context);
+        ArrayList<ForecastRow> rows = new ArrayList<ForecastRow>(cursor.getCount());
+        int position = cursor.getPosition();
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); ) {
+            rows.add(new ForecastRow(context, cursor, prefs));
+        }
+        cursor.moveToPosition(position);
+        return Collections.unmodifiableList(rows);
+    }
+}
@@ -28,10 +28,23 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  If the adapter
+ * has stable ids, the selection follows the selected items as they are inserted, removed and
+ * moved; otherwise it stays on the same positions.  Adapters that implement
+ * {@link PositionLookup} are asked where a selected id went, rather than searched for it.
  */
 public class ItemChoiceManager {
+    /**
+     * Implemented by adapters that can find the position of an id directly.
+     */
+    public interface PositionLookup {
+        /**
+         * @return the current position of the item with this stable id, or
+         * {@link RecyclerView#NO_POSITION} if there isn't one
+         */
+        int getPositionForId(long id);
+    }
+
     private final String LOG_TAG = MainActivity.class.getSimpleName();
     private final String SELECTED_ITEMS_KEY = "SIK";
     private int mChoiceMode;
@@ -41,6 +54,32 @@ public class ItemChoiceManager {
         @Override
         public void onChanged() {
             super.onChanged();
+            confirmCheckedPositions();
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            confirmCheckedPositions();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            confirmCheckedPositions();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            confirmCheckedPositions();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            confirmCheckedPositions();
+        }
+
+        private void confirmCheckedPositions() {
+            // The adapter already holds its new data by the time it notifies, so every event
+            // can be resolved by looking the checked ids up again.
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
@@ -53,12 +92,14 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
      * How many positions in either direction we will search to try to
      * find a checked item with a stable ID that moved position across
-     * a data set change. If the item isn't found it will be unselected.
+     * a data set change, if the adapter can't tell us. If the item isn't
+     * found it will be unselected.
      */
     private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
 
@@ -154,7 +195,7 @@ public class ItemChoiceManager {
         mCheckedIdStates.clear();
     }
 
-    void confirmCheckedPositionsById(int oldItemCount) {
+    void confirmCheckedPositionsById(int itemCount) {
         // Clear out the positional check states, we'll rebuild it below from IDs.
         mCheckStates.clear();
 
@@ -162,23 +203,15 @@ public class ItemChoiceManager {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
+            final long lastPosId = lastPos < itemCount
+                    ? mAdapter.getItemId(lastPos) : RecyclerView.NO_ID;
             if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
-                    }
-                }
-
-                if (!found) {
+                final int newPos = findPosition(id, lastPos, itemCount);
+                if (newPos != RecyclerView.NO_POSITION) {
+                    mCheckStates.put(newPos, true);
+                    mCheckedIdStates.setValueAt(checkedIndex, newPos);
+                } else {
+                    // The item is gone, so uncheck it.
                     mCheckedIdStates.delete(id);
                     checkedIndex--;
                 }
@@ -188,6 +221,22 @@ public class ItemChoiceManager {
         }
     }
 
+    private int findPosition(long id, int lastPos, int itemCount) {
+        if (mAdapter instanceof PositionLookup) {
+            int position = ((PositionLookup) mAdapter).getPositionForId(id);
+            return position < itemCount ? position : RecyclerView.NO_POSITION;
+        }
+        // Look around to see if the ID is nearby.
+        final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
+        final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, itemCount);
+        for (int searchPos = start; searchPos < end; searchPos++) {
+            if (id == mAdapter.getItemId(searchPos)) {
+                return searchPos;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
         boolean checked = isItemChecked(position);
         if (vh.itemView instanceof Checkable) {
@@ -19,16 +19,25 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.res.TypedArray;
+import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -36,9 +45,23 @@ import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
 import com.google.android.gms.common.GooglePlayServicesRepairableException;
 import com.google.android.gms.location.places.ui.PlacePicker;
 
+import java.util.ArrayList;
+
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
+    static final private int MAX_SUGGESTIONS = 5;
+
+    private static final String[] SUGGESTION_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME
+    };
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_SETTING = 0;
+    private static final int INDEX_CITY_NAME = 1;
+
     private int mMinLength;
+    private LinearLayout mSuggestionsView;
+    private SuggestionTask mSuggestionTask;
 
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -103,6 +126,101 @@ public class LocationEditTextPreference extends EditTextPreference {
         return view;
     }
 
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        super.onAddEditTextToDialogView(dialogView, editText);
+        // Suggestions for locations we've already fetched go right under the text field.  The
+        // dialog content scrolls, so a plain LinearLayout is used rather than a ListView.
+        ViewParent container = editText.getParent();
+        if (container instanceof ViewGroup) {
+            mSuggestionsView = new LinearLayout(getContext());
+            mSuggestionsView.setOrientation(LinearLayout.VERTICAL);
+            ((ViewGroup) container).addView(mSuggestionsView, new ViewGroup.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        }
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (null != mSuggestionTask) {
+            mSuggestionTask.cancel(false);
+            mSuggestionTask = null;
+        }
+        mSuggestionsView = null;
+        super.onDialogClosed(positiveResult);
+    }
+
+    private void requestSuggestions(String query) {
+        if (null != mSuggestionTask) {
+            mSuggestionTask.cancel(false);
+        }
+        mSuggestionTask = new SuggestionTask();
+        mSuggestionTask.execute(query);
+    }
+
+    private void showSuggestions(ArrayList<String[]> suggestions) {
+        if (null == mSuggestionsView) return;
+        mSuggestionsView.removeAllViews();
+        LayoutInflater inflater = LayoutInflater.from(getContext());
+        for (String[] suggestion : suggestions) {
+            final String locationSetting = suggestion[INDEX_LOCATION_SETTING];
+            String cityName = suggestion[INDEX_CITY_NAME];
+
+            View row = inflater.inflate(android.R.layout.simple_list_item_2, mSuggestionsView, false);
+            ((TextView) row.findViewById(android.R.id.text1)).setText(cityName);
+            ((TextView) row.findViewById(android.R.id.text2)).setText(locationSetting);
+            row.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    // Picking a suggestion is as good as typing it and pressing OK.
+                    getEditText().setText(locationSetting);
+                    Dialog dialog = getDialog();
+                    if (null != dialog) {
+                        LocationEditTextPreference.this.onClick(dialog, DialogInterface.BUTTON_POSITIVE);
+                        dialog.dismiss();
+                    }
+                }
+            });
+            mSuggestionsView.addView(row);
+        }
+    }
+
+    /**
+     * Looks up cached locations matching what has been typed so far.  Runs off the UI thread;
+     * a newer query cancels the one in flight.
+     */
+    private class SuggestionTask extends AsyncTask<String, Void, ArrayList<String[]>> {
+        @Override
+        protected ArrayList<String[]> doInBackground(String... params) {
+            ArrayList<String[]> suggestions = new ArrayList<String[]>();
+            Cursor cursor = getContext().getContentResolver().query(
+                    WeatherContract.LocationEntry.buildLocationSearchUri(params[0], MAX_SUGGESTIONS),
+                    SUGGESTION_COLUMNS,
+                    null,
+                    null,
+                    null);
+            if (null == cursor) return suggestions;
+            try {
+                while (cursor.moveToNext() && !isCancelled()) {
+                    suggestions.add(new String[]{
+                            cursor.getString(INDEX_LOCATION_SETTING),
+                            cursor.getString(INDEX_CITY_NAME)});
+                }
+            } finally {
+                cursor.close();
+            }
+            return suggestions;
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<String[]> suggestions) {
+            if (mSuggestionTask == this) {
+                mSuggestionTask = null;
+            }
+            showSuggestions(suggestions);
+        }
+    }
+
     @Override
     protected void showDialog(Bundle state) {
         super.showDialog(state);
@@ -136,6 +254,7 @@ public class LocationEditTextPreference extends EditTextPreference {
                         positiveButton.setEnabled(true);
                     }
                 }
+                requestSuggestions(s.toString());
             }
         });
     }
@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
@@ -22,6 +23,7 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
+import android.support.v4.os.TraceCompat;
 import android.support.v4.util.Pair;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -32,6 +34,8 @@ import android.view.View;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
+import com.example.android.sunshine.app.startup.StartupOrchestrator;
+import com.example.android.sunshine.app.startup.StartupTrace;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -43,11 +47,19 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     private final static int PLAY_SERVICES_RESOLUTION_REQUEST = 9000;
     public static final String SENT_TOKEN_TO_SERVER = "sentTokenToServer";
 
+    // Startup tasks
+    private static final String TASK_SYNC_ACCOUNT = "Startup: sync account";
+    private static final String TASK_CHECK_PLAY_SERVICES = "Startup: check Play Services";
+    private static final String TASK_RESOLVE_PLAY_SERVICES = "Startup: resolve Play Services";
+    private static final String TASK_REGISTER_GCM = "Startup: register GCM";
+
     private boolean mTwoPane;
     private String mLocation;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.begin();
+        TraceCompat.beginSection("MainActivity.onCreate");
         super.onCreate(savedInstanceState);
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
@@ -89,24 +101,76 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
-
-        // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
-        // skip the registration and this device will not receive any downstream messages from
-        // our fake server. Because weather alerts are not a core feature of the app, this should
-        // not affect the behavior of the app, from a user perspective.
-        if (checkPlayServices()) {
-            // Because this is the initial creation of the app, we'll want to be certain we have
-            // a token. If we do not, then we will start the IntentService that will register this
-            // application with GCM.
-            SharedPreferences sharedPreferences =
-                    PreferenceManager.getDefaultSharedPreferences(this);
-            boolean sentToken = sharedPreferences.getBoolean(SENT_TOKEN_TO_SERVER, false);
-            if (!sentToken) {
-                Intent intent = new Intent(this, RegistrationIntentService.class);
-                startService(intent);
-            }
-        }
+        startDeferredInitialization();
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Starts the work the first frame doesn't depend on, so that it happens off the main thread
+     * while the forecast is drawn.
+     */
+    private void startDeferredInitialization() {
+        final Context context = getApplicationContext();
+        final int[] playServicesResult = new int[1];
+        new StartupOrchestrator()
+                .addBackgroundTask(TASK_SYNC_ACCOUNT, new StartupOrchestrator.Task() {
+                    @Override
+                    public boolean run() {
+                        // Talks to the AccountManager, and may add the account and start a sync
+                        SunshineSyncAdapter.initializeSyncAdapter(context);
+                        return true;
+                    }
+                })
+                .addBackgroundTask(TASK_CHECK_PLAY_SERVICES, new StartupOrchestrator.Task() {
+                    @Override
+                    public boolean run() {
+                        playServicesResult[0] = GoogleApiAvailability.getInstance()
+                                .isGooglePlayServicesAvailable(context);
+                        return true;
+                    }
+                })
+                .addMainThreadTask(TASK_RESOLVE_PLAY_SERVICES, new StartupOrchestrator.Task() {
+                    @Override
+                    public boolean run() {
+                        return !isFinishing() && resolvePlayServices(playServicesResult[0]);
+                    }
+                }, TASK_CHECK_PLAY_SERVICES)
+                .addBackgroundTask(TASK_REGISTER_GCM, new StartupOrchestrator.Task() {
+                    @Override
+                    public boolean run() {
+                        // If Google Play Services is up to date, we'll want to register GCM. If it
+                        // is not, this task is cancelled, and this device will not receive any
+                        // downstream messages from our fake server. Because weather alerts are
+                        // not a core feature of the app, this should not affect the behavior of
+                        // the app, from a user perspective.
+
+                        // Because this is the initial creation of the app, we'll want to be
+                        // certain we have a token. If we do not, then we will start the
+                        // IntentService that will register this application with GCM.
+                        SharedPreferences sharedPreferences =
+                                PreferenceManager.getDefaultSharedPreferences(context);
+                        boolean sentToken = sharedPreferences.getBoolean(SENT_TOKEN_TO_SERVER, false);
+                        if (!sentToken) {
+                            Intent intent = new Intent(context, RegistrationIntentService.class);
+                            context.startService(intent);
+                        }
+                        return true;
+                    }
+                }, TASK_RESOLVE_PLAY_SERVICES)
+                .start();
+    }
+
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        // Coming back from the background is a launch too, if a cheaper one
+        StartupTrace.begin();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        StartupTrace.trackFirstDraw(getWindow().getDecorView());
     }
 
     @Override
@@ -165,6 +229,9 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             getSupportFragmentManager().beginTransaction()
                     .replace(R.id.weather_detail_container, fragment, DETAILFRAGMENT_TAG)
                     .commit();
+            // The new pane binds straight from the ForecastRepository, so run the transaction
+            // now and have it drawn in the same frame as the selection.
+            getSupportFragmentManager().executePendingTransactions();
         } else {
             Intent intent = new Intent(this, DetailActivity.class)
                     .setData(contentUri);
@@ -177,13 +244,12 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     }
 
     /**
-     * Check the device to make sure it has the Google Play Services APK. If
-     * it doesn't, display a dialog that allows users to download the APK from
-     * the Google Play Store or enable it in the device's system settings.
+     * Given the result of checking the device for the Google Play Services APK, display a
+     * dialog that allows users to download the APK from the Google Play Store or enable it in
+     * the device's system settings if it's missing.
      */
-    private boolean checkPlayServices() {
+    private boolean resolvePlayServices(int resultCode) {
         GoogleApiAvailability apiAvailability = GoogleApiAvailability.getInstance();
-        int resultCode = apiAvailability.isGooglePlayServicesAvailable(this);
         if (resultCode != ConnectionResult.SUCCESS) {
             if (apiAvailability.isUserResolvableError(resultCode)) {
                 apiAvailability.getErrorDialog(this, resultCode,
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.Locale;
+
+/**
+ * An immutable copy of the settings Sunshine reads while formatting weather data.
+ * <p/>
+ * Reading a preference means resolving its key from resources and looking it up in the
+ * SharedPreferences map, which adds up when it happens for every list row, widget row and
+ * notification.  Instead, the current values are read once into a snapshot, which is replaced
+ * whenever the preferences change.  Snapshots never change once built, so they can be read from
+ * any thread; callers formatting many values should get one and hold on to it for the batch.
+ */
+public final class PreferenceSnapshot {
+    private static final Object sLock = new Object();
+    private static volatile PreferenceSnapshot sSnapshot;
+    // SharedPreferences only keeps weak references to its listeners, so hold on to ours.
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final String location;
+    public final boolean latLonAvailable;
+    public final float latitude;
+    public final float longitude;
+    public final boolean metric;
+    // The art pack is stored as the URL format for its images
+    public final String artPack;
+    public final boolean localGraphics;
+    @SunshineSyncAdapter.LocationStatus
+    public final int locationStatus;
+    public final boolean notificationsEnabled;
+    // Whether to measure the forecast list's frames; never in release builds
+    public final boolean frameStatsEnabled;
+
+    // Formatting depends on the locale as well as the units, so the snapshot is rebuilt when
+    // the default locale changes.
+    private final Locale mLocale;
+    private final WeatherFormatter mFormatter;
+
+    @SuppressWarnings("ResourceType")
+    private PreferenceSnapshot(Context context, SharedPreferences prefs) {
+        String latitudeKey = context.getString(R.string.pref_location_latitude);
+        String longitudeKey = context.getString(R.string.pref_location_longitude);
+
+        location = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        latLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        latitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        longitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        localGraphics = artPack.equals(sunshineArtPack);
+
+        locationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        notificationsEnabled = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        frameStatsEnabled = BuildConfig.DEBUG && prefs.getBoolean(
+                context.getString(R.string.pref_frame_stats_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_frame_stats_default)));
+
+        mLocale = Locale.getDefault();
+        mFormatter = WeatherFormatter.obtain(metric, mLocale,
+                context.getString(R.string.format_temperature),
+                context.getString(metric ? R.string.format_wind_kmh : R.string.format_wind_mph));
+    }
+
+    /**
+     * @return the current settings.  The first call registers the listener that keeps them
+     * current; it reads the preferences, so avoid making it on the UI thread if possible.
+     */
+    public static PreferenceSnapshot get(Context context) {
+        PreferenceSnapshot snapshot = sSnapshot;
+        if (null != snapshot && snapshot.mLocale.equals(Locale.getDefault())) {
+            return snapshot;
+        }
+        return refresh(context);
+    }
+
+    /**
+     * Rebuilds the snapshot from the stored preferences.
+     * <p/>
+     * Preference listeners run in no particular order, and writes made off the main thread only
+     * reach them later, so code that writes a preference, or reads one from its own change
+     * listener, calls this first rather than waiting for the snapshot's listener.
+     */
+    public static PreferenceSnapshot refresh(Context context) {
+        final Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        synchronized (sLock) {
+            if (null == sListener) {
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        synchronized (sLock) {
+                            sSnapshot = new PreferenceSnapshot(appContext, sharedPreferences);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+            }
+            PreferenceSnapshot snapshot = new PreferenceSnapshot(appContext, prefs);
+            sSnapshot = snapshot;
+            return snapshot;
+        }
+    }
+
+    /**
+     * Formats a temperature stored in Celsius in the user's preferred units.
+     */
+    public String formatTemperature(double temperature) {
+        return mFormatter.formatTemperature(temperature);
+    }
+
+    /**
+     * Formats a wind speed stored in km/h in the user's preferred units, along with its
+     * compass direction.
+     */
+    public String formatWind(float windSpeed, float degrees) {
+        return mFormatter.formatWind(windSpeed, degrees);
+    }
+}
@@ -16,8 +16,13 @@
 package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -30,6 +35,7 @@ import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.NotificationArtCache;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
@@ -45,7 +51,11 @@ import com.google.android.gms.maps.model.LatLng;
  */
 public class SettingsActivity extends PreferenceActivity
         implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
+    private static final String LOG_TAG = SettingsActivity.class.getSimpleName();
     protected final static int PLACE_PICKER_REQUEST = 9090;
+    // How far a picked place may be from a cached location for us to show that location's
+    // forecast while the new one is fetched.
+    private final static double NEARBY_LOCATION_RADIUS_METERS = 1000;
     private ImageView mAttribution;
 
     @Override
@@ -53,6 +63,10 @@ public class SettingsActivity extends PreferenceActivity
         super.onCreate(savedInstanceState);
         // Add 'general' preferences, defined in the XML file
         addPreferencesFromResource(R.xml.pref_general);
+        // Measurement settings are for developers only
+        if (BuildConfig.DEBUG) {
+            addPreferencesFromResource(R.xml.pref_debug);
+        }
 
         // For all preferences, attach an OnPreferenceChangeListener so the UI summary can be
         // updated when the preference changes.
@@ -153,6 +167,8 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // This may run before the settings snapshot hears about the change
+        PreferenceSnapshot.refresh(this);
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
@@ -160,14 +176,16 @@ public class SettingsActivity extends PreferenceActivity
             editor.remove(getString(R.string.pref_location_latitude));
             editor.remove(getString(R.string.pref_location_longitude));
             editor.commit();
+            PreferenceSnapshot.refresh(this);
 
             // Remove attributions for our any PlacePicker locations.
             if (mAttribution != null) {
                 mAttribution.setVisibility(View.GONE);
             }
 
-            Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            // If we already have today's forecast for this location, show it right away;
+            // otherwise go and fetch it.
+            new SwitchLocationTask(this).execute(Utility.getPreferredLocation(this));
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -178,7 +196,137 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // and have the notification's icons ready before the next notification
+            NotificationArtCache.getInstance(this).populateAsync();
+        }
+    }
+
+    /**
+     * Records that the user picked a location, then either reuses the forecast we have cached
+     * for it or asks the SyncAdapter for a fresh one.
+     */
+    private static class SwitchLocationTask extends AsyncTask<String, Void, Boolean> {
+        private final Context mContext;
+
+        SwitchLocationTask(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        protected Boolean doInBackground(String... params) {
+            String locationSetting = params[0];
+            ContentResolver resolver = mContext.getContentResolver();
+            resolver.update(WeatherContract.LocationEntry.buildLocationUsedUri(locationSetting),
+                    new ContentValues(), null, null);
+
+            boolean cached = hasCurrentForecast(resolver, locationSetting);
+            if (cached) {
+                // The location resolved before, so it's still valid.
+                SunshineSyncAdapter.setLocationStatus(mContext, SunshineSyncAdapter.LOCATION_STATUS_OK);
+            }
+            return cached;
+        }
+
+        @Override
+        protected void onPostExecute(Boolean cached) {
+            if (cached) {
+                SunshineSyncAdapter.notifyDataUpdated(mContext);
+            } else {
+                Utility.resetLocationStatus(mContext);
+                SunshineSyncAdapter.syncImmediately(mContext);
+            }
+        }
+    }
+
+    private static final String[] NEARBY_LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_SETTING = 0;
+
+    /**
+     * Handles a Place Picker result.  If we have a current forecast for a location close to the
+     * picked place, the list shows it while the SyncAdapter fetches the forecast for the exact
+     * place.  The stand-in is only held in memory, so nothing is saved under the picked place
+     * until the real forecast arrives.
+     */
+    private static class NearbyLocationTask extends AsyncTask<Void, Void, String> {
+        private final Context mContext;
+        private final String mLocationSetting;
+        private final double mLat;
+        private final double mLong;
+        private boolean mCached;
+
+        NearbyLocationTask(Context context, String locationSetting, double lat, double lon) {
+            mContext = context.getApplicationContext();
+            mLocationSetting = locationSetting;
+            mLat = lat;
+            mLong = lon;
         }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            ContentResolver resolver = mContext.getContentResolver();
+            mCached = hasCurrentForecast(resolver, mLocationSetting);
+            if (mCached) {
+                resolver.update(WeatherContract.LocationEntry.buildLocationUsedUri(mLocationSetting),
+                        new ContentValues(), null, null);
+                SunshineSyncAdapter.setLocationStatus(mContext, SunshineSyncAdapter.LOCATION_STATUS_OK);
+                return null;
+            }
+            return findNearbyForecast(resolver);
+        }
+
+        // Returns the setting of a nearby location with a current forecast, or null if there
+        // isn't one.
+        private String findNearbyForecast(ContentResolver resolver) {
+            Cursor nearby = resolver.query(
+                    WeatherContract.LocationEntry.buildLocationNearUri(mLat, mLong,
+                            NEARBY_LOCATION_RADIUS_METERS),
+                    NEARBY_LOCATION_COLUMNS, null, null, null);
+            if (null == nearby) return null;
+            try {
+                while (nearby.moveToNext()) {
+                    String locationSetting = nearby.getString(INDEX_LOCATION_SETTING);
+                    if (hasCurrentForecast(resolver, locationSetting)) return locationSetting;
+                }
+                return null;
+            } finally {
+                nearby.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String nearbyLocationSetting) {
+            if (mCached) {
+                SunshineSyncAdapter.notifyDataUpdated(mContext);
+            } else {
+                Utility.resetLocationStatus(mContext);
+                if (null != nearbyLocationSetting) {
+                    Log.d(LOG_TAG, "Showing forecast for " + nearbyLocationSetting
+                            + " while fetching " + mLocationSetting);
+                    ForecastRepository.getInstance(mContext)
+                            .showStandIn(mLocationSetting, nearbyLocationSetting);
+                }
+            }
+            // A cached forecast may be out of date, so refresh in the background either way.
+            SunshineSyncAdapter.syncImmediately(mContext);
+        }
+    }
+
+    // Whether the provider has a forecast from today onwards for the location.
+    private static boolean hasCurrentForecast(ContentResolver resolver, String locationSetting) {
+        Cursor cursor = resolver.query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) return false;
+        boolean cached = cursor.getCount() > 0;
+        cursor.close();
+        return cached;
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
@@ -234,8 +382,7 @@ public class SettingsActivity extends PreferenceActivity
                             Snackbar.LENGTH_LONG).show();
                 }
 
-                Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                new NearbyLocationTask(this, address, latLong.latitude, latLong.longitude).execute();
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
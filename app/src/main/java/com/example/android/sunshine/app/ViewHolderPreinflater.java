@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates a RecyclerView's first view holders while the main thread is idle, and hands them to
+ * its recycled view pool, so laying out the first screen and starting a fling take holders from
+ * the pool instead of inflating their layouts in the middle of a frame.
+ * <p/>
+ * The holders are created by the list's adapter, exactly as the list would create them, and on
+ * the main thread, since the layout inflater and the support library's drawable caches aren't
+ * safe to use from another.  One holder is created each time the main thread runs out of work,
+ * so input and drawing always go first.  Whichever comes first wins: when the list lays out
+ * before a holder is ready, it inflates its own, and the late holder is pooled for the next row
+ * that scrolls in.
+ */
+public class ViewHolderPreinflater implements MessageQueue.IdleHandler {
+    private static final String LOG_TAG = ViewHolderPreinflater.class.getSimpleName();
+    // What RecycledViewPool keeps of each view type by default
+    private static final int DEFAULT_POOL_SIZE = 5;
+
+    private final RecyclerView mList;
+    private final RecyclerView.Adapter<?> mAdapter;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Pairs of view type and count, in the order to create them
+    private final List<int[]> mRequests = new ArrayList<int[]>();
+    // Wakes the main thread after each holder, so it goes idle, and calls us, again
+    private final Runnable mWakeUp = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+    // How far through the requests we are.  Only used on the main thread.
+    private int mRequestIndex;
+    private int mCreated;
+    private volatile boolean mCancelled;
+
+    public ViewHolderPreinflater(RecyclerView list) {
+        mList = list;
+        mAdapter = list.getAdapter();
+    }
+
+    /**
+     * Asks for a number of holders of a view type.  The pool is made big enough to keep them.
+     */
+    public ViewHolderPreinflater add(int viewType, int count) {
+        if (count > 0) {
+            mRequests.add(new int[]{viewType, count});
+            mList.getRecycledViewPool().setMaxRecycledViews(viewType,
+                    Math.max(count, DEFAULT_POOL_SIZE));
+        }
+        return this;
+    }
+
+    public ViewHolderPreinflater start() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myQueue().addIdleHandler(ViewHolderPreinflater.this);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Stops creating holders.  Call before the list goes away.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    @Override
+    public boolean queueIdle() {
+        if (mCancelled || mList.getAdapter() != mAdapter) return false;
+        while (mRequestIndex < mRequests.size() && mCreated == mRequests.get(mRequestIndex)[1]) {
+            mRequestIndex++;
+            mCreated = 0;
+        }
+        if (mRequestIndex == mRequests.size()) return false;
+
+        int viewType = mRequests.get(mRequestIndex)[0];
+        mCreated++;
+        RecyclerView.ViewHolder holder;
+        TraceCompat.beginSection("Preinflate view type " + viewType);
+        try {
+            holder = mAdapter.createViewHolder(mList, viewType);
+        } catch (RuntimeException e) {
+            // The list inflates its own instead
+            Log.w(LOG_TAG, "Error preinflating view type " + viewType, e);
+            return false;
+        } finally {
+            TraceCompat.endSection();
+        }
+        mList.getRecycledViewPool().putRecycledView(holder);
+        mMainHandler.post(mWakeUp);
+        return true;
+    }
+}
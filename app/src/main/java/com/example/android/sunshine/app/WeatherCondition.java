@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Locale;
+
+/**
+ * The graphics for each kind of weather, and a table mapping every OpenWeatherMap condition id
+ * to its kind and description, so that everything about a condition is a single array lookup.
+ * <p/>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherCondition {
+    // OpenWeatherMap condition ids are all below this
+    static final int MAX_ID = 1000;
+
+    private static final WeatherCondition STORM = new WeatherCondition(0,
+            R.drawable.ic_storm, R.drawable.art_storm, "storm",
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg");
+    private static final WeatherCondition LIGHT_RAIN = new WeatherCondition(1,
+            R.drawable.ic_light_rain, R.drawable.art_light_rain, "light_rain",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg");
+    private static final WeatherCondition RAIN = new WeatherCondition(2,
+            R.drawable.ic_rain, R.drawable.art_rain, "rain",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg");
+    private static final WeatherCondition SNOW = new WeatherCondition(3,
+            R.drawable.ic_snow, R.drawable.art_snow, "snow",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG");
+    private static final WeatherCondition FOG = new WeatherCondition(4,
+            R.drawable.ic_fog, R.drawable.art_fog, "fog",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg");
+    // Tornadoes look like storms, but Muzei has a picture of their own for them
+    private static final WeatherCondition TORNADO = new WeatherCondition(5,
+            R.drawable.ic_storm, R.drawable.art_storm, "storm",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg");
+    private static final WeatherCondition CLEAR = new WeatherCondition(6,
+            R.drawable.ic_clear, R.drawable.art_clear, "clear",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg");
+    private static final WeatherCondition LIGHT_CLOUDS = new WeatherCondition(7,
+            R.drawable.ic_light_clouds, R.drawable.art_light_clouds, "light_clouds",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg");
+    private static final WeatherCondition CLOUDS = new WeatherCondition(8,
+            R.drawable.ic_cloudy, R.drawable.art_clouds, "clouds",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg");
+    private static final int CONDITION_COUNT = 9;
+
+    // The kind of weather for each condition id, null where there are no graphics for it
+    private static final WeatherCondition[] sConditions = new WeatherCondition[MAX_ID];
+    // The description string for each condition id, 0 where there isn't one
+    private static final int[] sStringIds = new int[MAX_ID];
+
+    static {
+        fill(200, 232, STORM);
+        fill(300, 321, LIGHT_RAIN);
+        fill(500, 504, RAIN);
+        fill(511, 511, SNOW);
+        fill(520, 531, RAIN);
+        fill(600, 622, SNOW);
+        fill(701, 761, FOG);
+        fill(781, 781, TORNADO);
+        fill(800, 800, CLEAR);
+        fill(801, 801, LIGHT_CLOUDS);
+        fill(802, 804, CLOUDS);
+
+        for (int id = 200; id <= 232; id++) sStringIds[id] = R.string.condition_2xx;
+        for (int id = 300; id <= 321; id++) sStringIds[id] = R.string.condition_3xx;
+        sStringIds[500] = R.string.condition_500;
+        sStringIds[501] = R.string.condition_501;
+        sStringIds[502] = R.string.condition_502;
+        sStringIds[503] = R.string.condition_503;
+        sStringIds[504] = R.string.condition_504;
+        sStringIds[511] = R.string.condition_511;
+        sStringIds[520] = R.string.condition_520;
+        sStringIds[531] = R.string.condition_531;
+        sStringIds[600] = R.string.condition_600;
+        sStringIds[601] = R.string.condition_601;
+        sStringIds[602] = R.string.condition_602;
+        sStringIds[611] = R.string.condition_611;
+        sStringIds[612] = R.string.condition_612;
+        sStringIds[615] = R.string.condition_615;
+        sStringIds[616] = R.string.condition_616;
+        sStringIds[620] = R.string.condition_620;
+        sStringIds[621] = R.string.condition_621;
+        sStringIds[622] = R.string.condition_622;
+        sStringIds[701] = R.string.condition_701;
+        sStringIds[711] = R.string.condition_711;
+        sStringIds[721] = R.string.condition_721;
+        sStringIds[731] = R.string.condition_731;
+        sStringIds[741] = R.string.condition_741;
+        sStringIds[751] = R.string.condition_751;
+        sStringIds[761] = R.string.condition_761;
+        sStringIds[762] = R.string.condition_762;
+        sStringIds[771] = R.string.condition_771;
+        sStringIds[781] = R.string.condition_781;
+        sStringIds[800] = R.string.condition_800;
+        sStringIds[801] = R.string.condition_801;
+        sStringIds[802] = R.string.condition_802;
+        sStringIds[803] = R.string.condition_803;
+        sStringIds[804] = R.string.condition_804;
+        sStringIds[900] = R.string.condition_900;
+        sStringIds[901] = R.string.condition_901;
+        sStringIds[902] = R.string.condition_902;
+        sStringIds[903] = R.string.condition_903;
+        sStringIds[904] = R.string.condition_904;
+        sStringIds[905] = R.string.condition_905;
+        sStringIds[906] = R.string.condition_906;
+        sStringIds[951] = R.string.condition_951;
+        sStringIds[952] = R.string.condition_952;
+        sStringIds[953] = R.string.condition_953;
+        sStringIds[954] = R.string.condition_954;
+        sStringIds[955] = R.string.condition_955;
+        sStringIds[956] = R.string.condition_956;
+        sStringIds[957] = R.string.condition_957;
+        sStringIds[958] = R.string.condition_958;
+        sStringIds[959] = R.string.condition_959;
+        sStringIds[960] = R.string.condition_960;
+        sStringIds[961] = R.string.condition_961;
+        sStringIds[962] = R.string.condition_962;
+    }
+
+    // The art urls for the art pack they were last formatted for
+    private static volatile ArtUrls sArtUrls;
+
+    private final int mIndex;
+    public final int iconResource;
+    public final int artResource;
+    // Fills the %s in an art pack's url format
+    public final String artSlug;
+    // The photo Muzei shows
+    public final String imageUrl;
+
+    private WeatherCondition(int index, int iconResource, int artResource, String artSlug,
+                             String imageUrl) {
+        mIndex = index;
+        this.iconResource = iconResource;
+        this.artResource = artResource;
+        this.artSlug = artSlug;
+        this.imageUrl = imageUrl;
+    }
+
+    private static void fill(int firstId, int lastId, WeatherCondition condition) {
+        for (int id = firstId; id <= lastId; id++) {
+            sConditions[id] = condition;
+        }
+    }
+
+    private static final class ArtUrls {
+        final String artPack;
+        final String[] urls = new String[CONDITION_COUNT];
+
+        ArtUrls(String artPack) {
+            this.artPack = artPack;
+            for (WeatherCondition condition : values()) {
+                urls[condition.mIndex] = String.format(Locale.US, artPack, condition.artSlug);
+            }
+        }
+    }
+
+    /**
+     * @return the kind of weather for a condition id, or null if there are no graphics for it
+     */
+    public static WeatherCondition forId(int weatherId) {
+        return weatherId >= 0 && weatherId < MAX_ID ? sConditions[weatherId] : null;
+    }
+
+    /**
+     * @return every kind of weather, in a new array
+     */
+    public static WeatherCondition[] values() {
+        return new WeatherCondition[]{STORM, LIGHT_RAIN, RAIN, SNOW, FOG, TORNADO, CLEAR,
+                LIGHT_CLOUDS, CLOUDS};
+    }
+
+    /**
+     * @return the description string resource for a condition id, or 0 if there isn't one
+     */
+    public static int getStringResource(int weatherId) {
+        return weatherId >= 0 && weatherId < MAX_ID ? sStringIds[weatherId] : 0;
+    }
+
+    /**
+     * @param artPack the art pack's url format, as stored in the preferences
+     * @return the url of this weather's art in the given art pack
+     */
+    public String getArtUrl(String artPack) {
+        ArtUrls artUrls = sArtUrls;
+        // Snapshots of the same preferences share the same string, so this is usually a
+        // reference comparison.
+        if (null == artUrls || !artUrls.artPack.equals(artPack)) {
+            artUrls = new ArtUrls(artPack);
+            sArtUrls = artUrls;
+        }
+        return artUrls.urls[mIndex];
+    }
+}
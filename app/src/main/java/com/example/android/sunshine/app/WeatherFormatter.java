@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Locale;
+
+/**
+ * Formats temperatures and winds for one unit system and locale, keeping every string it
+ * renders.
+ * <p/>
+ * Both are shown to the nearest whole unit, so there are only a few hundred distinct strings
+ * for realistic weather.  Each is formatted the first time it is needed and reused from then on;
+ * values outside the cached range are formatted every time.  The cached strings are immutable,
+ * so a formatter can be shared between threads; two threads formatting the same new value at
+ * once just both store an equal string.
+ */
+public final class WeatherFormatter {
+    // Displayed temperatures from MIN_TEMPERATURE to MAX_TEMPERATURE are cached, in either unit
+    static final int MIN_TEMPERATURE = -100;
+    static final int MAX_TEMPERATURE = 150;
+    // Displayed wind speeds up to MAX_WIND_SPEED are cached, in either unit
+    static final int MAX_WIND_SPEED = 250;
+
+    private static final float KMH_TO_MPH = .621371192237334f;
+
+    // Compass directions, one per 45 degrees starting from north, then one for bad data
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW", "Unknown"};
+    private static final int UNKNOWN_DIRECTION = DIRECTIONS.length - 1;
+
+    // The most recent formatter for each unit system
+    private static volatile WeatherFormatter sMetric;
+    private static volatile WeatherFormatter sImperial;
+
+    private final boolean mMetric;
+    private final Locale mLocale;
+    private final String mTemperatureFormat;
+    private final String mWindFormat;
+
+    private final String[] mTemperatures = new String[MAX_TEMPERATURE - MIN_TEMPERATURE + 1];
+    private final String[][] mWinds = new String[DIRECTIONS.length][MAX_WIND_SPEED + 1];
+
+    private WeatherFormatter(boolean metric, Locale locale, String temperatureFormat,
+                             String windFormat) {
+        mMetric = metric;
+        mLocale = locale;
+        mTemperatureFormat = temperatureFormat;
+        mWindFormat = windFormat;
+    }
+
+    /**
+     * Returns a formatter for the given settings, reusing the last one made for the same unit
+     * system if nothing else has changed, so that its strings survive unrelated preference
+     * changes.
+     *
+     * @param temperatureFormat the format_temperature string for the locale
+     * @param windFormat the format_wind string for the locale and unit system
+     */
+    static WeatherFormatter obtain(boolean metric, Locale locale, String temperatureFormat,
+                                   String windFormat) {
+        WeatherFormatter formatter = metric ? sMetric : sImperial;
+        if (null != formatter && formatter.mLocale.equals(locale)
+                && formatter.mTemperatureFormat.equals(temperatureFormat)
+                && formatter.mWindFormat.equals(windFormat)) {
+            return formatter;
+        }
+        formatter = new WeatherFormatter(metric, locale, temperatureFormat, windFormat);
+        if (metric) {
+            sMetric = formatter;
+        } else {
+            sImperial = formatter;
+        }
+        return formatter;
+    }
+
+    // Rounds the way %.0f does, half away from zero.  Returns Long.MIN_VALUE for values that
+    // round to zero from below, which %.0f shows as "-0".
+    private static long round(double value) {
+        long rounded = (long) Math.floor(Math.abs(value) + 0.5);
+        if (value < 0) {
+            return rounded == 0 ? Long.MIN_VALUE : -rounded;
+        }
+        return rounded;
+    }
+
+    /**
+     * Formats a temperature stored in Celsius in this formatter's units.
+     */
+    public String formatTemperature(double temperature) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!mMetric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+
+        long rounded = round(temperature);
+        if (rounded < MIN_TEMPERATURE || rounded > MAX_TEMPERATURE) {
+            return String.format(mTemperatureFormat, temperature);
+        }
+        int index = (int) rounded - MIN_TEMPERATURE;
+        String text = mTemperatures[index];
+        if (null == text) {
+            // For presentation, assume the user doesn't care about tenths of a degree.
+            text = String.format(mTemperatureFormat, (double) rounded);
+            mTemperatures[index] = text;
+        }
+        return text;
+    }
+
+    /**
+     * Formats a wind speed stored in km/h and a direction in degrees, e.g "12 mph NW".
+     */
+    public String formatWind(float windSpeed, float degrees) {
+        if (!mMetric) {
+            windSpeed = KMH_TO_MPH * windSpeed;
+        }
+
+        int direction = directionIndex(degrees);
+        long rounded = round(windSpeed);
+        if (rounded < 0 || rounded > MAX_WIND_SPEED) {
+            return String.format(mWindFormat, windSpeed, DIRECTIONS[direction]);
+        }
+        String text = mWinds[direction][(int) rounded];
+        if (null == text) {
+            text = String.format(mWindFormat, (float) rounded, DIRECTIONS[direction]);
+            mWinds[direction][(int) rounded] = text;
+        }
+        return text;
+    }
+
+    // From wind direction in degrees, determine compass direction as an index into DIRECTIONS
+    static int directionIndex(float degrees) {
+        if (Float.isNaN(degrees)) {
+            return UNKNOWN_DIRECTION;
+        }
+        if (degrees >= 337.5 || degrees < 22.5) {
+            return 0;
+        }
+        return (int) ((degrees + 22.5) / 45);
+    }
+}
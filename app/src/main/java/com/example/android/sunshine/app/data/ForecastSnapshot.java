@@ -0,0 +1,561 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * A compact, read-only binary copy of the forecast stored for a single location.
+ * <p/>
+ * The sync adapter writes one snapshot per location after every successful sync, so that
+ * first paint and lightweight consumers (widgets, Muzei) can show the forecast without opening
+ * weather.db and running the weather/location join.  Readers memory-map the file and read the
+ * fixed-size records in place, so there is no parsing step.  The database stays authoritative;
+ * a missing, stale or unrecognized snapshot simply means callers fall back to the provider.
+ * <p/>
+ * Layout (big endian):
+ * <pre>
+ * header:  int magic, int version, long writtenAt, double lat, double long, int count,
+ *          int recordsOffset, int poolOffset, int settingLength, byte[] locationSetting
+ * records: count * RECORD_SIZE, sorted by date ascending
+ * pool:    UTF-8 short descriptions referenced by the records
+ * </pre>
+ */
+public class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    // If you change the file layout, you must increment the version.  Readers ignore snapshots
+    // written with any other version and fall back to the database.
+    static final int VERSION = 1;
+    private static final int MAGIC = 0x53554E53; // "SUNS"
+
+    static final String SNAPSHOT_DIR = "forecast_snapshots";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Header field offsets
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_WRITTEN_AT = 8;
+    private static final int OFFSET_COORD_LAT = 16;
+    private static final int OFFSET_COORD_LONG = 24;
+    private static final int OFFSET_COUNT = 32;
+    private static final int OFFSET_RECORDS = 36;
+    private static final int OFFSET_POOL = 40;
+    private static final int OFFSET_SETTING_LENGTH = 44;
+    private static final int HEADER_SIZE = 48;
+
+    // Record field offsets, relative to the start of a record
+    private static final int RECORD_ID = 0;
+    private static final int RECORD_DATE = 8;
+    private static final int RECORD_WEATHER_ID = 16;
+    private static final int RECORD_MAX_TEMP = 20;
+    private static final int RECORD_MIN_TEMP = 28;
+    private static final int RECORD_HUMIDITY = 36;
+    private static final int RECORD_PRESSURE = 40;
+    private static final int RECORD_WIND_SPEED = 44;
+    private static final int RECORD_DEGREES = 48;
+    private static final int RECORD_DESC_OFFSET = 52;
+    private static final int RECORD_DESC_LENGTH = 56;
+    static final int RECORD_SIZE = 60;
+
+    private static final String[] SNAPSHOT_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    // these indices must match the projection
+    private static final int COL_ID = 0;
+    private static final int COL_DATE = 1;
+    private static final int COL_WEATHER_ID = 2;
+    private static final int COL_SHORT_DESC = 3;
+    private static final int COL_MAX_TEMP = 4;
+    private static final int COL_MIN_TEMP = 5;
+    private static final int COL_HUMIDITY = 6;
+    private static final int COL_PRESSURE = 7;
+    private static final int COL_WIND_SPEED = 8;
+    private static final int COL_DEGREES = 9;
+    private static final int COL_COORD_LAT = 10;
+    private static final int COL_COORD_LONG = 11;
+    // Not stored per record; the whole snapshot belongs to one location.
+    private static final int COL_LOCATION_SETTING = 12;
+
+    private final ByteBuffer mBuffer;
+    private final String mLocationSetting;
+    private final int mCount;
+    private final int mRecordsOffset;
+    private final int mPoolOffset;
+
+    private ForecastSnapshot(ByteBuffer buffer, String locationSetting) {
+        mBuffer = buffer;
+        mLocationSetting = locationSetting;
+        mCount = buffer.getInt(OFFSET_COUNT);
+        mRecordsOffset = buffer.getInt(OFFSET_RECORDS);
+        mPoolOffset = buffer.getInt(OFFSET_POOL);
+    }
+
+    static File getSnapshotFile(Context context, String locationSetting) {
+        File dir = new File(context.getFilesDir(), SNAPSHOT_DIR);
+        return new File(dir, "forecast_" + Integer.toHexString(locationSetting.hashCode()) + ".snap");
+    }
+
+    /**
+     * Memory-maps the snapshot for the given location.
+     *
+     * @param context Context used to locate the snapshot directory
+     * @param locationSetting The location setting the snapshot was written for
+     * @return the snapshot, or null if there is no usable snapshot for this location
+     */
+    public static ForecastSnapshot open(Context context, String locationSetting) {
+        if (null == locationSetting) return null;
+        File file = getSnapshotFile(context, locationSetting);
+        if (!file.exists()) return null;
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) return null;
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(OFFSET_MAGIC) != MAGIC || buffer.getInt(OFFSET_VERSION) != VERSION) {
+                return null;
+            }
+            int count = buffer.getInt(OFFSET_COUNT);
+            int recordsOffset = buffer.getInt(OFFSET_RECORDS);
+            int poolOffset = buffer.getInt(OFFSET_POOL);
+            int settingLength = buffer.getInt(OFFSET_SETTING_LENGTH);
+            if (count < 0 || recordsOffset != HEADER_SIZE + settingLength
+                    || poolOffset != recordsOffset + count * RECORD_SIZE || poolOffset > size) {
+                return null;
+            }
+            // Two different settings can share a file name; make sure this one is ours.
+            byte[] setting = new byte[settingLength];
+            buffer.position(HEADER_SIZE);
+            buffer.get(setting);
+            buffer.position(0);
+            if (!locationSetting.equals(new String(setting, UTF_8))) return null;
+            return new ForecastSnapshot(buffer, locationSetting);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to map forecast snapshot " + file, e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing snapshot", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Convenience for lightweight consumers: returns the snapshot rows for a location dated on or
+     * after startDate, or null if there is no snapshot or it holds nothing from startDate on, in
+     * which case the caller should query the provider instead.
+     */
+    public static Cursor query(Context context, String locationSetting, String[] projection,
+                               long startDate) {
+        ForecastSnapshot snapshot = open(context, locationSetting);
+        if (snapshot == null) return null;
+        Cursor cursor = snapshot.asCursor(projection, startDate);
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * Copies the forecast currently stored in the provider for a location into its snapshot.
+     * The snapshot is written to a temporary file and renamed into place, so readers see either
+     * the previous snapshot or the new one, never a partially written file.
+     *
+     * This does disk I/O and should not be called from the UI thread.
+     *
+     * @param context Context used to query the provider
+     * @param locationSetting The location setting to write a snapshot for
+     * @return true if the snapshot was written
+     */
+    public static boolean writeFromProvider(Context context, String locationSetting) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting),
+                SNAPSHOT_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) return false;
+        try {
+            return write(context, locationSetting, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean write(Context context, String locationSetting, Cursor cursor) {
+        int count = cursor.getCount();
+        double coordLat = 0;
+        double coordLong = 0;
+        if (cursor.moveToFirst()) {
+            coordLat = cursor.getDouble(COL_COORD_LAT);
+            coordLong = cursor.getDouble(COL_COORD_LONG);
+        }
+
+        byte[] setting = locationSetting.getBytes(UTF_8);
+        ArrayList<byte[]> descriptions = new ArrayList<byte[]>(count);
+        int poolSize = 0;
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); ) {
+            String desc = cursor.getString(COL_SHORT_DESC);
+            byte[] bytes = desc == null ? new byte[0] : desc.getBytes(UTF_8);
+            descriptions.add(bytes);
+            poolSize += bytes.length;
+        }
+
+        int recordsOffset = HEADER_SIZE + setting.length;
+        int poolOffset = recordsOffset + count * RECORD_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(poolOffset + poolSize);
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putLong(OFFSET_WRITTEN_AT, System.currentTimeMillis());
+        buffer.putDouble(OFFSET_COORD_LAT, coordLat);
+        buffer.putDouble(OFFSET_COORD_LONG, coordLong);
+        buffer.putInt(OFFSET_COUNT, count);
+        buffer.putInt(OFFSET_RECORDS, recordsOffset);
+        buffer.putInt(OFFSET_POOL, poolOffset);
+        buffer.putInt(OFFSET_SETTING_LENGTH, setting.length);
+        buffer.position(HEADER_SIZE);
+        buffer.put(setting);
+
+        int descOffset = poolOffset;
+        int i = 0;
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); i++) {
+            int record = recordsOffset + i * RECORD_SIZE;
+            byte[] desc = descriptions.get(i);
+            buffer.putLong(record + RECORD_ID, cursor.getLong(COL_ID));
+            buffer.putLong(record + RECORD_DATE, cursor.getLong(COL_DATE));
+            buffer.putInt(record + RECORD_WEATHER_ID, cursor.getInt(COL_WEATHER_ID));
+            buffer.putDouble(record + RECORD_MAX_TEMP, cursor.getDouble(COL_MAX_TEMP));
+            buffer.putDouble(record + RECORD_MIN_TEMP, cursor.getDouble(COL_MIN_TEMP));
+            buffer.putFloat(record + RECORD_HUMIDITY, cursor.getFloat(COL_HUMIDITY));
+            buffer.putFloat(record + RECORD_PRESSURE, cursor.getFloat(COL_PRESSURE));
+            buffer.putFloat(record + RECORD_WIND_SPEED, cursor.getFloat(COL_WIND_SPEED));
+            buffer.putFloat(record + RECORD_DEGREES, cursor.getFloat(COL_DEGREES));
+            buffer.putInt(record + RECORD_DESC_OFFSET, descOffset);
+            buffer.putInt(record + RECORD_DESC_LENGTH, desc.length);
+            buffer.position(descOffset);
+            buffer.put(desc);
+            descOffset += desc.length;
+        }
+        buffer.position(0);
+
+        File target = getSnapshotFile(context, locationSetting);
+        File dir = target.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create snapshot directory " + dir);
+            return false;
+        }
+        File temp = new File(dir, target.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(target)) {
+                Log.e(LOG_TAG, "Unable to move snapshot into place " + target);
+                temp.delete();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing forecast snapshot " + target, e);
+            temp.delete();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing snapshot", e);
+                }
+            }
+        }
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public long getWrittenAt() {
+        return mBuffer.getLong(OFFSET_WRITTEN_AT);
+    }
+
+    public double getCoordLat() {
+        return mBuffer.getDouble(OFFSET_COORD_LAT);
+    }
+
+    public double getCoordLong() {
+        return mBuffer.getDouble(OFFSET_COORD_LONG);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    private int record(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", count: " + mCount);
+        }
+        return mRecordsOffset + index * RECORD_SIZE;
+    }
+
+    public long getId(int index) {
+        return mBuffer.getLong(record(index) + RECORD_ID);
+    }
+
+    public long getDate(int index) {
+        return mBuffer.getLong(record(index) + RECORD_DATE);
+    }
+
+    public int getWeatherId(int index) {
+        return mBuffer.getInt(record(index) + RECORD_WEATHER_ID);
+    }
+
+    public double getMaxTemp(int index) {
+        return mBuffer.getDouble(record(index) + RECORD_MAX_TEMP);
+    }
+
+    public double getMinTemp(int index) {
+        return mBuffer.getDouble(record(index) + RECORD_MIN_TEMP);
+    }
+
+    public float getHumidity(int index) {
+        return mBuffer.getFloat(record(index) + RECORD_HUMIDITY);
+    }
+
+    public float getPressure(int index) {
+        return mBuffer.getFloat(record(index) + RECORD_PRESSURE);
+    }
+
+    public float getWindSpeed(int index) {
+        return mBuffer.getFloat(record(index) + RECORD_WIND_SPEED);
+    }
+
+    public float getDegrees(int index) {
+        return mBuffer.getFloat(record(index) + RECORD_DEGREES);
+    }
+
+    public String getShortDesc(int index) {
+        int record = record(index);
+        int offset = mBuffer.getInt(record + RECORD_DESC_OFFSET);
+        int length = mBuffer.getInt(record + RECORD_DESC_LENGTH);
+        if (offset < mPoolOffset || offset + length > mBuffer.limit()) return null;
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = mBuffer.duplicate();
+        slice.position(offset);
+        slice.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @param date a date in milliseconds, normalized with {@link WeatherContract#normalizeDate}
+     * @return the index of the first record on or after date, or {@link #getCount()} if none
+     */
+    public int findFirstIndexOnOrAfter(long date) {
+        // Records are sorted by date, so a binary search does the job.
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getDate(mid) < date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Exposes the records dated on or after startDate as a {@link Cursor} with the given
+     * projection, so that code written against the provider can render the snapshot unchanged.
+     * Columns the snapshot doesn't know about read as null.
+     *
+     * @param projection Column names, using the same names as the weather/location join
+     * @param startDate The first date to include, in milliseconds
+     */
+    public Cursor asCursor(String[] projection, long startDate) {
+        return new SnapshotCursor(this, projection,
+                findFirstIndexOnOrAfter(WeatherContract.normalizeDate(startDate)));
+    }
+
+    /**
+     * Read-only cursor over the mapped records.  Values are read from the mapping on demand.
+     */
+    private static class SnapshotCursor extends AbstractCursor {
+        private final ForecastSnapshot mSnapshot;
+        private final String[] mColumnNames;
+        private final int[] mColumnMap;
+        private final int mStart;
+
+        SnapshotCursor(ForecastSnapshot snapshot, String[] projection, int start) {
+            mSnapshot = snapshot;
+            mColumnNames = projection;
+            mStart = start;
+            mColumnMap = new int[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                mColumnMap[i] = columnFor(projection[i]);
+            }
+        }
+
+        private static int columnFor(String name) {
+            for (int i = 0; i < SNAPSHOT_COLUMNS.length; i++) {
+                if (SNAPSHOT_COLUMNS[i].equals(name)) return i;
+            }
+            if (WeatherEntry._ID.equals(name)) return COL_ID;
+            if (LocationEntry.COLUMN_LOCATION_SETTING.equals(name)) return COL_LOCATION_SETTING;
+            return -1;
+        }
+
+        private int index() {
+            return mStart + getPosition();
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.getCount() - mStart;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            int index = index();
+            switch (mColumnMap[column]) {
+                case COL_SHORT_DESC:
+                    return mSnapshot.getShortDesc(index);
+                case COL_LOCATION_SETTING:
+                    return mSnapshot.getLocationSetting();
+                case COL_ID:
+                case COL_DATE:
+                case COL_WEATHER_ID:
+                    return Long.toString(getLong(column));
+                case -1:
+                    return null;
+                default:
+                    return Double.toString(getDouble(column));
+            }
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            int index = index();
+            switch (mColumnMap[column]) {
+                case COL_ID:
+                    return mSnapshot.getId(index);
+                case COL_DATE:
+                    return mSnapshot.getDate(index);
+                case COL_WEATHER_ID:
+                    return mSnapshot.getWeatherId(index);
+                default:
+                    return (long) getDouble(column);
+            }
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            int index = index();
+            switch (mColumnMap[column]) {
+                case COL_ID:
+                case COL_DATE:
+                case COL_WEATHER_ID:
+                    return getLong(column);
+                case COL_MAX_TEMP:
+                    return mSnapshot.getMaxTemp(index);
+                case COL_MIN_TEMP:
+                    return mSnapshot.getMinTemp(index);
+                case COL_HUMIDITY:
+                    return mSnapshot.getHumidity(index);
+                case COL_PRESSURE:
+                    return mSnapshot.getPressure(index);
+                case COL_WIND_SPEED:
+                    return mSnapshot.getWindSpeed(index);
+                case COL_DEGREES:
+                    return mSnapshot.getDegrees(index);
+                case COL_COORD_LAT:
+                    return mSnapshot.getCoordLat();
+                case COL_COORD_LONG:
+                    return mSnapshot.getCoordLong();
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mColumnMap[column] == -1;
+        }
+    }
+}
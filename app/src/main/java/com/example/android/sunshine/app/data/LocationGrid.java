@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * Buckets coordinates into a fixed grid so that nearby locations can be found with an indexed
+ * lookup instead of scanning every row.
+ * <p/>
+ * Cells are {@link #CELL_DEGREES} on a side, roughly 1.1km north to south and narrower east to
+ * west away from the equator.  A cell is identified by a single long so it can live in an
+ * indexed INTEGER column.
+ */
+public class LocationGrid {
+    static final double CELL_DEGREES = 0.01;
+
+    private static final int LAT_CELLS = (int) Math.round(180 / CELL_DEGREES);
+    private static final int LONG_CELLS = (int) Math.round(360 / CELL_DEGREES);
+
+    private static final double EARTH_RADIUS_METERS = 6371000;
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180;
+
+    // Searches covering more cells than this are refused; they would only happen for huge radii
+    // or right next to the poles, where a grid lookup stops being useful anyway.
+    private static final int MAX_SEARCH_CELLS = 400;
+
+    private LocationGrid() {
+    }
+
+    private static int latIndex(double lat) {
+        int index = (int) Math.floor((lat + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(LAT_CELLS - 1, index));
+    }
+
+    private static int longIndex(double lon) {
+        int index = (int) Math.floor((lon + 180) / CELL_DEGREES);
+        // wrap around the antimeridian
+        return ((index % LONG_CELLS) + LONG_CELLS) % LONG_CELLS;
+    }
+
+    private static long cell(int latIndex, int longIndex) {
+        return (long) latIndex * LONG_CELLS + longIndex;
+    }
+
+    /**
+     * @return the grid cell containing the given coordinates
+     */
+    public static long cellFor(double lat, double lon) {
+        return cell(latIndex(lat), longIndex(lon));
+    }
+
+    /**
+     * Returns every cell that may hold a point within radiusMeters of the given coordinates.
+     * Callers still need to check the actual distance; the cells are a superset.
+     *
+     * @return the cells to search, or null if the area is too large to search cell by cell
+     */
+    public static long[] cellsWithin(double lat, double lon, double radiusMeters) {
+        double latSpan = radiusMeters / METERS_PER_DEGREE;
+        // A degree of longitude shrinks with the cosine of the latitude; use the latitude
+        // furthest from the equator that the search can reach.
+        double widestLat = Math.min(90, Math.abs(lat) + latSpan);
+        double cos = Math.cos(Math.toRadians(widestLat));
+        if (cos < 1e-6) return null;
+        double longSpan = latSpan / cos;
+
+        int minLat = latIndex(lat - latSpan);
+        int maxLat = latIndex(lat + latSpan);
+        int longSteps = (int) Math.ceil(longSpan / CELL_DEGREES);
+        int longCount = Math.min(LONG_CELLS, 2 * longSteps + 1);
+        int latCount = maxLat - minLat + 1;
+        if ((long) latCount * longCount > MAX_SEARCH_CELLS) return null;
+
+        int centerLong = longIndex(lon);
+        long[] cells = new long[latCount * longCount];
+        int i = 0;
+        for (int latIndex = minLat; latIndex <= maxLat; latIndex++) {
+            for (int step = 0; step < longCount; step++) {
+                int longIndex = ((centerLong - longSteps + step) % LONG_CELLS + LONG_CELLS) % LONG_CELLS;
+                cells[i++] = cell(latIndex, longIndex);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Great-circle distance between two coordinates, using the haversine formula.
+     */
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLong = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLong / 2) * Math.sin(dLong / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -43,6 +43,10 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    // Sub-paths of location, for suggestions and for recording that a location was picked
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_USED = "used";
+    public static final String PATH_NEAR = "near";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,9 +85,71 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // When the user last picked this location (milliseconds since the epoch) and how often
+        // they have picked it, used to rank search suggestions.
+        public static final String COLUMN_LAST_USED = "last_used";
+        public static final String COLUMN_USE_COUNT = "use_count";
+
+        // Bucket of the coordinates in the LocationGrid, indexed so that nearby locations can be
+        // found without a full table scan.  Maintained by the provider.
+        public static final String COLUMN_GRID_CELL = "grid_cell";
+
+        // Full text index over the city name and location setting.  Row ids (docid) match the
+        // _ID of the location row; the provider keeps it in step with the location table.
+        public static final String FTS_TABLE_NAME = "location_fts";
+
+        // Query parameters for the search URI
+        public static final String PARAM_QUERY = "q";
+        public static final String PARAM_LIMIT = "limit";
+        // Query parameters for the nearby URI
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LONG = "lon";
+        public static final String PARAM_RADIUS = "radius";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildLocationSearchUri(String query, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendQueryParameter(PARAM_QUERY, query)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static Uri buildLocationUsedUri(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_USED)
+                    .appendPath(locationSetting).build();
+        }
+
+        /**
+         * Builds a URI for the cached locations within radiusMeters of a point, nearest first.
+         */
+        public static Uri buildLocationNearUri(double lat, double lon, double radiusMeters) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LONG, Double.toString(lon))
+                    .appendQueryParameter(PARAM_RADIUS, Double.toString(radiusMeters)).build();
+        }
+
+        public static double getDoubleFromUri(Uri uri, String param) {
+            return Double.parseDouble(uri.getQueryParameter(param));
+        }
+
+        public static String getSearchQueryFromUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_QUERY);
+        }
+
+        public static int getSearchLimitFromUri(Uri uri, int defaultLimit) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return defaultLimit;
+        }
+
+        public static String getLocationSettingFromUsedUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
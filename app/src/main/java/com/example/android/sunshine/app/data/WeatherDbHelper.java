@@ -18,6 +18,7 @@ package com.example.android.sunshine.app.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
@@ -28,7 +29,7 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 4;
 
     static final String DATABASE_NAME = "weather.db";
 
@@ -45,7 +46,24 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_LAST_USED + " INTEGER NOT NULL DEFAULT 0, " +
+                LocationEntry.COLUMN_USE_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                LocationEntry.COLUMN_GRID_CELL + " INTEGER " +
+                " );";
+
+        final String SQL_CREATE_LOCATION_GRID_INDEX = "CREATE INDEX " +
+                LocationEntry.TABLE_NAME + "_" + LocationEntry.COLUMN_GRID_CELL + " ON " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_GRID_CELL + ");";
+
+        // Prefix index used for location suggestions.  FTS4 needs SQLite 3.7.4, which first
+        // shipped with Honeycomb; FTS3 supports the same prefix queries, just more slowly.
+        final String ftsModule = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? "fts4" : "fts3";
+        final String SQL_CREATE_LOCATION_FTS_TABLE = "CREATE VIRTUAL TABLE " +
+                LocationEntry.FTS_TABLE_NAME + " USING " + ftsModule + " (" +
+                LocationEntry.COLUMN_CITY_NAME + ", " +
+                LocationEntry.COLUMN_LOCATION_SETTING +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -80,7 +98,9 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_GRID_INDEX);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_FTS_TABLE);
     }
 
     @Override
@@ -93,6 +113,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.FTS_TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -20,10 +20,15 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
@@ -34,6 +39,11 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_SEARCH = 301;
+    static final int LOCATION_USED = 302;
+    static final int LOCATION_NEAR = 303;
+
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -68,6 +78,23 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location._id IN (SELECT docid FROM location_fts WHERE location_fts MATCH ?)
+    private static final String sLocationSearchSelection =
+            WeatherContract.LocationEntry._ID + " IN (SELECT docid FROM " +
+                    WeatherContract.LocationEntry.FTS_TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.FTS_TABLE_NAME + " MATCH ?)";
+
+    // Frecency: how often a location was picked, decayed by the days since it was last picked.
+    // The current time is bound as the first argument.
+    private static final String sLocationFrecencyOrder =
+            "(" + WeatherContract.LocationEntry.COLUMN_USE_COUNT + " + 1.0) / (1.0 + (? - " +
+                    WeatherContract.LocationEntry.COLUMN_LAST_USED + ") / 86400000.0) DESC, " +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + " ASC";
+
+    //location.location_setting = ?
+    private static final String sLocationUsedSelection =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -108,6 +135,221 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor searchLocations(Uri uri, String[] projection) {
+        String match = buildPrefixMatch(WeatherContract.LocationEntry.getSearchQueryFromUri(uri));
+        if (null == match) {
+            return new MatrixCursor(null == projection ? new String[]{WeatherContract.LocationEntry._ID}
+                    : projection);
+        }
+        int limit = WeatherContract.LocationEntry.getSearchLimitFromUri(uri, DEFAULT_SEARCH_LIMIT);
+
+        // SQLiteDatabase.query won't bind arguments in the ORDER BY clause, so build the
+        // statement ourselves.
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherContract.LocationEntry.TABLE_NAME,
+                projection,
+                sLocationSearchSelection,
+                null,
+                null,
+                sLocationFrecencyOrder,
+                Integer.toString(limit));
+        return mOpenHelper.getReadableDatabase().rawQuery(sql,
+                new String[]{match, Long.toString(System.currentTimeMillis())});
+    }
+
+    /**
+     * Turns whatever the user typed into an FTS prefix query: every word must prefix-match
+     * either the city name or the location setting.  Returns null if nothing is left to match.
+     */
+    static String buildPrefixMatch(String query) {
+        if (null == query) return null;
+        StringBuilder match = new StringBuilder();
+        // Anything other than letters and digits is a token separator to FTS, and quotes,
+        // asterisks and dashes are query syntax, so keep only letters and digits.
+        String[] words = query.split("[^\\p{L}\\p{N}]+");
+        for (String word : words) {
+            if (word.length() == 0) continue;
+            if (match.length() > 0) match.append(' ');
+            match.append(word).append('*');
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    private Cursor getLocationsNear(Uri uri, String[] projection) {
+        double lat = WeatherContract.LocationEntry.getDoubleFromUri(uri,
+                WeatherContract.LocationEntry.PARAM_LAT);
+        double lon = WeatherContract.LocationEntry.getDoubleFromUri(uri,
+                WeatherContract.LocationEntry.PARAM_LONG);
+        double radius = WeatherContract.LocationEntry.getDoubleFromUri(uri,
+                WeatherContract.LocationEntry.PARAM_RADIUS);
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+
+        // First find the candidates in the surrounding grid cells, then keep the ones that are
+        // actually within the radius.
+        long[] cells = LocationGrid.cellsWithin(lat, lon, radius);
+        ArrayList<NearbyLocation> matches = new ArrayList<NearbyLocation>();
+        if (null != cells) {
+            Cursor candidates = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID,
+                            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                            WeatherContract.LocationEntry.COLUMN_COORD_LONG},
+                    WeatherContract.LocationEntry.COLUMN_GRID_CELL + " IN (" + joinIds(cells) + ")",
+                    null, null, null, null);
+            try {
+                while (candidates.moveToNext()) {
+                    double distance = LocationGrid.distanceMeters(lat, lon,
+                            candidates.getDouble(1), candidates.getDouble(2));
+                    if (distance <= radius) {
+                        matches.add(new NearbyLocation(candidates.getLong(0), distance));
+                    }
+                }
+            } finally {
+                candidates.close();
+            }
+        }
+
+        long[] ids = new long[matches.size()];
+        if (ids.length == 0) {
+            return db.query(WeatherContract.LocationEntry.TABLE_NAME, projection, "0", null,
+                    null, null, null);
+        }
+        Collections.sort(matches, new Comparator<NearbyLocation>() {
+            @Override
+            public int compare(NearbyLocation lhs, NearbyLocation rhs) {
+                return Double.compare(lhs.distance, rhs.distance);
+            }
+        });
+        // Keep the nearest first by ordering on the position of each id in the sorted list.
+        StringBuilder order = new StringBuilder("CASE " + WeatherContract.LocationEntry._ID);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = matches.get(i).id;
+            order.append(" WHEN ").append(ids[i]).append(" THEN ").append(i);
+        }
+        order.append(" END");
+        return db.query(WeatherContract.LocationEntry.TABLE_NAME, projection,
+                WeatherContract.LocationEntry._ID + " IN (" + joinIds(ids) + ")",
+                null, null, null, order.toString());
+    }
+
+    private static class NearbyLocation {
+        final long id;
+        final double distance;
+
+        NearbyLocation(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+    }
+
+    private static String joinIds(long[] ids) {
+        StringBuilder idList = new StringBuilder();
+        for (long id : ids) {
+            if (idList.length() > 0) idList.append(',');
+            idList.append(id);
+        }
+        return idList.toString();
+    }
+
+    // Fills in the grid cell for a location about to be inserted.
+    private static void setGridCell(ContentValues values) {
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (null != lat && null != lon) {
+            values.put(WeatherContract.LocationEntry.COLUMN_GRID_CELL, LocationGrid.cellFor(lat, lon));
+        }
+    }
+
+    // Recomputes the grid cells of the given location rows after their coordinates changed.
+    private void updateGridCells(SQLiteDatabase db, long[] ids) {
+        if (ids.length == 0) return;
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG},
+                WeatherContract.LocationEntry._ID + " IN (" + joinIds(ids) + ")",
+                null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.put(WeatherContract.LocationEntry.COLUMN_GRID_CELL,
+                        LocationGrid.cellFor(cursor.getDouble(1), cursor.getDouble(2)));
+                db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(cursor.getLong(0))});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int markLocationUsed(Uri uri) {
+        String locationSetting = WeatherContract.LocationEntry.getLocationSettingFromUsedUri(uri);
+        String[] selectionArgs = new String[]{locationSetting};
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_USE_COUNT},
+                    sLocationUsedSelection, selectionArgs, null, null, null);
+            int useCount;
+            try {
+                if (!cursor.moveToFirst()) return 0;
+                useCount = cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_USE_COUNT, useCount + 1);
+            values.put(WeatherContract.LocationEntry.COLUMN_LAST_USED, System.currentTimeMillis());
+            int rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                    sLocationUsedSelection, selectionArgs);
+            db.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Collects the ids of the location rows matching a selection, so that the search index
+    // can be brought up to date after they are written.
+    private long[] queryLocationIds(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Copies the given location rows into the search index, replacing any previous entries.
+    private void indexLocations(SQLiteDatabase db, long[] ids) {
+        if (ids.length == 0) return;
+        String idList = joinIds(ids);
+        db.execSQL("DELETE FROM " + WeatherContract.LocationEntry.FTS_TABLE_NAME +
+                " WHERE docid IN (" + idList + ")");
+        db.execSQL("INSERT INTO " + WeatherContract.LocationEntry.FTS_TABLE_NAME + " (docid, " +
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ") SELECT " +
+                WeatherContract.LocationEntry._ID + ", " +
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                WeatherContract.LocationEntry._ID + " IN (" + idList + ")");
+    }
+
+    // Drops search index entries whose location row is gone.
+    private void pruneLocationIndex(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + WeatherContract.LocationEntry.FTS_TABLE_NAME +
+                " WHERE docid NOT IN (SELECT " + WeatherContract.LocationEntry._ID + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + ")");
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +372,12 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_SEARCH, LOCATION_SEARCH);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_USED + "/*", LOCATION_USED);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_NEAR, LOCATION_NEAR);
         return matcher;
     }
 
@@ -164,6 +412,12 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_SEARCH:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_USED:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case LOCATION_NEAR:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -213,6 +467,16 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/search?q="
+            case LOCATION_SEARCH: {
+                retCursor = searchLocations(uri, projection);
+                break;
+            }
+            // "location/near?lat=&lon=&radius="
+            case LOCATION_NEAR: {
+                retCursor = getLocationsNear(uri, projection);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -241,7 +505,18 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                long _id;
+                setGridCell(values);
+                db.beginTransaction();
+                try {
+                    _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 ) {
+                        indexLocations(db, new long[]{_id});
+                        db.setTransactionSuccessful();
+                    }
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -268,8 +543,17 @@ public class WeatherProvider extends ContentProvider {
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        pruneLocationIndex(db);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -303,9 +587,25 @@ public class WeatherProvider extends ContentProvider {
                         selectionArgs);
                 break;
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                db.beginTransaction();
+                try {
+                    long[] ids = queryLocationIds(db, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    indexLocations(db, ids);
+                    if (values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                            || values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LONG)) {
+                        updateGridCells(db, ids);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
+            case LOCATION_USED:
+                // Usage statistics aren't indexed, so there's no need to touch the index, and
+                // nobody displays them, so there's no need to notify either.
+                return markLocationUsed(uri);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * The photos we give Muzei, downloaded once each and kept on the device.
+ * <p/>
+ * Muzei is given a content uri served by {@link MuzeiArtworkProvider} instead of the photo's
+ * url, so when the weather goes back to a condition we've shown before, neither of us downloads
+ * its photo again.  The photos are several megabytes each, so the least recently used are
+ * deleted once they add up to more than {@link #MAX_BYTES}.
+ */
+public class MuzeiArtworkCache {
+    private static final String LOG_TAG = MuzeiArtworkCache.class.getSimpleName();
+
+    static final String CACHE_DIR = "muzei_art";
+    static final long MAX_BYTES = 24 * 1024 * 1024;
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+    private static final int MAX_REDIRECTS = 5;
+    // Not among HttpURLConnection's constants
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+
+    private final Context mContext;
+    private final File mDir;
+    private final long mMaxBytes;
+
+    public MuzeiArtworkCache(Context context) {
+        this(context, MAX_BYTES);
+    }
+
+    MuzeiArtworkCache(Context context, long maxBytes) {
+        mContext = context.getApplicationContext();
+        mDir = new File(mContext.getCacheDir(), CACHE_DIR);
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached copy of a photo, downloading it first if needed, or null if it
+     * couldn't be downloaded.  Blocks, so never call on the main thread.
+     */
+    public File fetch(String imageUrl) {
+        File file = new File(mDir, getFileName(imageUrl));
+        if (file.exists()) {
+            // Keeps it from being the next one deleted
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+        if (!mDir.isDirectory() && !mDir.mkdirs()) return null;
+        if (!download(imageUrl, file)) return null;
+        trim(file);
+        return file;
+    }
+
+    /**
+     * @return the uri Muzei can read a cached photo from
+     */
+    public Uri getContentUri(File file) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(mContext.getString(R.string.muzei_artwork_authority))
+                .appendPath(file.getName())
+                .build();
+    }
+
+    /**
+     * @return the cached photo a content uri refers to, or null if it isn't one of ours
+     */
+    File getFile(Uri uri) {
+        String name = uri.getLastPathSegment();
+        // Only ever a name we made, so the uri can't reach outside the cache
+        if (null == name || uri.getPathSegments().size() != 1 || !name.matches("[0-9a-f]+")) {
+            return null;
+        }
+        File file = new File(mDir, name);
+        return file.exists() ? file : null;
+    }
+
+    private static String getFileName(String imageUrl) {
+        return String.format(Locale.US, "%08x%08x",
+                imageUrl.hashCode(), new StringBuilder(imageUrl).reverse().toString().hashCode());
+    }
+
+    private boolean download(String imageUrl, File file) {
+        // Written aside and renamed, so Muzei never reads half a photo
+        File tmp = new File(mDir, file.getName() + ".tmp");
+        HttpURLConnection connection = null;
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            // Redirects are followed here, since HttpURLConnection won't follow one from http to
+            // https, which is where the photos' http urls are sent.
+            URL url = new URL(imageUrl);
+            for (int redirects = 0; ; redirects++) {
+                connection = (HttpURLConnection) url.openConnection();
+                connection.setInstanceFollowRedirects(false);
+                connection.setConnectTimeout(TIMEOUT_MILLIS);
+                connection.setReadTimeout(TIMEOUT_MILLIS);
+                int responseCode = connection.getResponseCode();
+                if (!isRedirect(responseCode)) {
+                    if (responseCode != HttpURLConnection.HTTP_OK) {
+                        Log.w(LOG_TAG, "Error downloading " + imageUrl + ": " + responseCode);
+                        return false;
+                    }
+                    break;
+                }
+                String location = connection.getHeaderField("Location");
+                connection.disconnect();
+                connection = null;
+                if (null == location || redirects == MAX_REDIRECTS) {
+                    Log.w(LOG_TAG, "Error downloading " + imageUrl + ": bad redirect to "
+                            + location);
+                    return false;
+                }
+                url = new URL(url, location);
+            }
+            in = connection.getInputStream();
+            out = new FileOutputStream(tmp);
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            out.close();
+            out = null;
+            return tmp.renameTo(file);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error downloading " + imageUrl, e);
+            return false;
+        } finally {
+            close(in);
+            close(out);
+            tmp.delete();
+            if (null != connection) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static boolean isRedirect(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                || responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+                || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+                || responseCode == HTTP_TEMPORARY_REDIRECT;
+    }
+
+    private static void close(Closeable closeable) {
+        if (null == closeable) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing stream", e);
+        }
+    }
+
+    // Deletes the least recently used photos, other than the one we're about to show, until
+    // the rest fit
+    private void trim(File keep) {
+        File[] files = mDir.listFiles();
+        if (null == files) return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= mMaxBytes) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= mMaxBytes) break;
+            if (file.equals(keep)) continue;
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+}
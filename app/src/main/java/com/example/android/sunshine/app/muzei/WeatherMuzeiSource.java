@@ -21,11 +21,14 @@ import android.net.Uri;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
 
+import java.io.File;
+
 /**
  * Muzei source that changes your background based on the current weather conditions
  */
@@ -37,6 +40,8 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     // these indices must match the projection
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_SHORT_DESC = 1;
+    // Muzei reads the photos from our provider, which isn't exported
+    private static final String MUZEI_PACKAGE = "net.nurik.roman.muzei";
 
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
@@ -55,10 +60,17 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        long now = System.currentTimeMillis();
+        Cursor cursor = ForecastSnapshot.query(this, location, FORECAST_COLUMNS, now);
+        if (cursor == null) {
+            Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                    location, now);
+            cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
+                    null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        }
+        if (cursor == null) {
+            return;
+        }
         if (cursor.moveToFirst()) {
             int weatherId = cursor.getInt(INDEX_WEATHER_ID);
             String desc = cursor.getString(INDEX_SHORT_DESC);
@@ -66,14 +78,35 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
             String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
             // Only publish a new wallpaper if we have a valid image
             if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
+                publish(imageUrl, desc, location);
             }
         }
         cursor.close();
     }
+
+    // Publishes the photo from our cache, unless Muzei is already showing it
+    private void publish(String imageUrl, String title, String byline) {
+        String token = imageUrl + '\n' + title + '\n' + byline;
+        Artwork current = getCurrentArtwork();
+        if (current != null && token.equals(current.getToken())) {
+            return;
+        }
+
+        MuzeiArtworkCache cache = new MuzeiArtworkCache(this);
+        File file = cache.fetch(imageUrl);
+        Artwork.Builder artwork = new Artwork.Builder()
+                .title(title)
+                .byline(byline)
+                .viewIntent(new Intent(this, MainActivity.class));
+        if (file != null) {
+            Uri uri = cache.getContentUri(file);
+            grantUriPermission(MUZEI_PACKAGE, uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            artwork.imageUri(uri).token(token);
+        } else {
+            // Let Muzei try the photo itself.  Without a token, we try to cache it again
+            // next time.
+            artwork.imageUri(Uri.parse(imageUrl));
+        }
+        publishArtwork(artwork.build());
+    }
 }
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Color;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.view.GravityCompat;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.Choreographer;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.view.WindowManager;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.R;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures how smoothly a list scrolls: the duration of every frame drawn while it scrolls, how
+ * many of those were janky, how long binding its rows takes, and how long its scroll listeners
+ * take.  Only meant for debug builds, behind the frame stats setting.
+ * <p/>
+ * Frames are timed from the Choreographer's vsync timestamps where it exists (API 16), and from
+ * the time between pre-draw passes before that.  A frame is janky when it takes more than one and
+ * a half refresh intervals, that is, when at least one vsync was missed.  The results are shown
+ * over the list, and written to jank-report.json in the app's external files directory (or its
+ * files directory) when the overlay is tapped.  Everything here runs on the main thread.
+ */
+public class JankMonitor {
+    private static final String LOG_TAG = JankMonitor.class.getSimpleName();
+
+    private static final String REPORT_FILE = "jank-report.json";
+    private static final int CAPACITY = 4096;
+    private static final long OVERLAY_REFRESH_MILLIS = 500;
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+    private static final float JANK_THRESHOLD = 1.5f;
+    private static final int OVERLAY_PADDING_DP = 4;
+
+    // Calls a listener back for each frame drawn while it's running
+    private interface FrameClock {
+        void start(FrameListener listener);
+
+        void stop();
+    }
+
+    private interface FrameListener {
+        void onFrame(long frameTimeNanos);
+    }
+
+    private final Context mContext;
+    private final long mFrameIntervalNanos;
+    private final FrameClock mFrameClock;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final SampleBuffer mFrames = new SampleBuffer(CAPACITY);
+    private final SampleBuffer mBinds = new SampleBuffer(CAPACITY);
+    // Keyed by the names given to wrap(), in the order they were wrapped
+    private final Map<String, SampleBuffer> mListeners = new LinkedHashMap<String, SampleBuffer>();
+    private long mJankyFrames;
+    private long mSkippedFrames;
+    private long mLastFrameNanos;
+    private boolean mScrolling;
+
+    private RecyclerView mList;
+    private TextView mOverlay;
+
+    private final RecyclerView.OnScrollListener mScrollStateListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                    setScrolling(RecyclerView.SCROLL_STATE_IDLE != newState);
+                }
+            };
+
+    private final FrameListener mFrameListener = new FrameListener() {
+        @Override
+        public void onFrame(long frameTimeNanos) {
+            if (0 != mLastFrameNanos) {
+                recordFrame(frameTimeNanos - mLastFrameNanos);
+            }
+            mLastFrameNanos = frameTimeNanos;
+        }
+    };
+
+    private final Runnable mUpdateOverlay = new Runnable() {
+        @Override
+        public void run() {
+            updateOverlay();
+            mHandler.postDelayed(this, OVERLAY_REFRESH_MILLIS);
+        }
+    };
+
+    public JankMonitor(Context context) {
+        mContext = context.getApplicationContext();
+        float refreshRate = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE))
+                .getDefaultDisplay().getRefreshRate();
+        if (refreshRate < 1f) refreshRate = DEFAULT_REFRESH_RATE;
+        mFrameIntervalNanos = (long) (1000000000L / refreshRate);
+        mFrameClock = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? new ChoreographerFrameClock() : null;
+    }
+
+    /**
+     * Wraps one of the list's scroll listeners, so the time it takes is measured.
+     *
+     * @param name what the listener is called in the report
+     */
+    public RecyclerView.OnScrollListener wrap(String name,
+                                              final RecyclerView.OnScrollListener listener) {
+        final SampleBuffer samples = new SampleBuffer(CAPACITY);
+        mListeners.put(name, samples);
+        return new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                long start = System.nanoTime();
+                listener.onScrollStateChanged(recyclerView, newState);
+                samples.add(System.nanoTime() - start);
+            }
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                long start = System.nanoTime();
+                listener.onScrolled(recyclerView, dx, dy);
+                samples.add(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Records how long binding one of the list's rows took.
+     */
+    public void recordBind(long nanos) {
+        mBinds.add(nanos);
+    }
+
+    /**
+     * Starts timing the list's frames while it scrolls, and shows the results over the activity.
+     */
+    public void attach(Activity activity, RecyclerView list) {
+        detach();
+        mList = list;
+        mList.addOnScrollListener(mScrollStateListener);
+
+        mOverlay = new TextView(activity);
+        mOverlay.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10);
+        mOverlay.setTextColor(Color.WHITE);
+        mOverlay.setBackgroundColor(0xaa000000);
+        int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, OVERLAY_PADDING_DP,
+                activity.getResources().getDisplayMetrics());
+        mOverlay.setPadding(padding, padding, padding, padding);
+        mOverlay.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                shareReport(v.getContext());
+            }
+        });
+        mOverlay.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                reset();
+                updateOverlay();
+                return true;
+            }
+        });
+        ((ViewGroup) activity.findViewById(android.R.id.content)).addView(mOverlay,
+                new FrameLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                        ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.BOTTOM | GravityCompat.END));
+        mHandler.post(mUpdateOverlay);
+    }
+
+    /**
+     * Stops timing, and removes the overlay.  The results are kept for the next attach.
+     */
+    public void detach() {
+        if (null == mList) return;
+        setScrolling(false);
+        mList.removeOnScrollListener(mScrollStateListener);
+        mList = null;
+        mHandler.removeCallbacks(mUpdateOverlay);
+        ((ViewGroup) mOverlay.getParent()).removeView(mOverlay);
+        mOverlay = null;
+    }
+
+    public void reset() {
+        mFrames.clear();
+        mBinds.clear();
+        for (SampleBuffer samples : mListeners.values()) {
+            samples.clear();
+        }
+        mJankyFrames = 0;
+        mSkippedFrames = 0;
+    }
+
+    private void setScrolling(boolean scrolling) {
+        if (scrolling == mScrolling) return;
+        mScrolling = scrolling;
+        // Frames from before this scroll don't count
+        mLastFrameNanos = 0;
+        if (scrolling) {
+            if (null != mFrameClock) {
+                mFrameClock.start(mFrameListener);
+            } else {
+                mList.getViewTreeObserver().addOnPreDrawListener(mPreDrawListener);
+            }
+        } else {
+            if (null != mFrameClock) {
+                mFrameClock.stop();
+            } else {
+                mList.getViewTreeObserver().removeOnPreDrawListener(mPreDrawListener);
+            }
+        }
+    }
+
+    // Before API 16, time the gaps between the list's pre-draw passes.  Nothing is drawn while
+    // the list doesn't change, so these only count frames the scroll actually drew.
+    private final ViewTreeObserver.OnPreDrawListener mPreDrawListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    mFrameListener.onFrame(System.nanoTime());
+                    return true;
+                }
+            };
+
+    void recordFrame(long durationNanos) {
+        mFrames.add(durationNanos);
+        if (durationNanos > mFrameIntervalNanos * JANK_THRESHOLD) {
+            mJankyFrames++;
+            mSkippedFrames += Math.round((double) durationNanos / mFrameIntervalNanos) - 1;
+        }
+    }
+
+    private void updateOverlay() {
+        if (null == mOverlay) return;
+        long[] frames = mFrames.sorted();
+        long[] binds = mBinds.sorted();
+        long count = mFrames.getCount();
+        mOverlay.setText(mContext.getString(R.string.format_frame_stats,
+                count,
+                mJankyFrames,
+                0 == count ? 0f : 100f * mJankyFrames / count,
+                toMillis(SampleBuffer.percentile(frames, 50)),
+                toMillis(SampleBuffer.percentile(frames, 90)),
+                toMillis(SampleBuffer.percentile(frames, 99)),
+                toMicros(SampleBuffer.percentile(binds, 50)),
+                toMicros(SampleBuffer.percentile(binds, 90)),
+                toMicros(SampleBuffer.percentile(binds, 99))));
+    }
+
+    /**
+     * @return everything measured since the last reset, as JSON
+     */
+    public JSONObject getReport() throws JSONException {
+        JSONObject report = new JSONObject();
+        report.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        report.put("sdk", Build.VERSION.SDK_INT);
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("frameClock", null != mFrameClock ? "choreographer" : "preDraw");
+        report.put("frameIntervalMs", toMillis(mFrameIntervalNanos));
+        report.put("frames", mFrames.getCount());
+        report.put("jankyFrames", mJankyFrames);
+        report.put("skippedFrames", mSkippedFrames);
+        report.put("frameMs", summarize(mFrames, false));
+        report.put("bindUs", summarize(mBinds, true));
+        JSONObject listeners = new JSONObject();
+        for (Map.Entry<String, SampleBuffer> entry : mListeners.entrySet()) {
+            listeners.put(entry.getKey(), summarize(entry.getValue(), true));
+        }
+        report.put("scrollListenersUs", listeners);
+        return report;
+    }
+
+    private static JSONObject summarize(SampleBuffer samples, boolean micros)
+            throws JSONException {
+        long[] sorted = samples.sorted();
+        JSONObject summary = new JSONObject();
+        summary.put("count", samples.getCount());
+        int[] percents = {50, 90, 99, 100};
+        String[] names = {"p50", "p90", "p99", "max"};
+        for (int i = 0; i < percents.length; i++) {
+            long value = SampleBuffer.percentile(sorted, percents[i]);
+            if (micros) {
+                summary.put(names[i], toMicros(value));
+            } else {
+                summary.put(names[i], toMillis(value));
+            }
+        }
+        return summary;
+    }
+
+    private void shareReport(Context context) {
+        String report;
+        try {
+            report = getReport().toString(2);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error building the frame stats report", e);
+            return;
+        }
+
+        File dir = mContext.getExternalFilesDir(null);
+        if (null == dir) dir = mContext.getFilesDir();
+        File file = new File(dir, REPORT_FILE);
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(report.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            Log.i(LOG_TAG, "Frame stats report written to " + file);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing the frame stats report", e);
+        }
+
+        Intent shareIntent = new Intent(Intent.ACTION_SEND)
+                .setType("text/plain")
+                .putExtra(Intent.EXTRA_SUBJECT, REPORT_FILE)
+                .putExtra(Intent.EXTRA_TEXT, report);
+        context.startActivity(Intent.createChooser(shareIntent, null));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos / 1000;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerFrameClock implements FrameClock, Choreographer.FrameCallback {
+        private FrameListener mListener;
+
+        @Override
+        public void start(FrameListener listener) {
+            mListener = listener;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void stop() {
+            mListener = null;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (null == mListener) return;
+            mListener.onFrame(frameTimeNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent durations of something being measured, in a fixed amount of memory, and
+ * summarizes them.  Adding a sample never allocates, so it's cheap enough to do every frame.
+ * Not thread safe; every sample of a buffer should come from the same thread.
+ */
+public final class SampleBuffer {
+    private final long[] mSamples;
+    private int mNext;
+    private long mCount;
+
+    public SampleBuffer(int capacity) {
+        mSamples = new long[capacity];
+    }
+
+    public void add(long sample) {
+        mSamples[mNext] = sample;
+        mNext = (mNext + 1) % mSamples.length;
+        mCount++;
+    }
+
+    /**
+     * @return how many samples were ever added, including ones that have since been dropped
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the samples still held, in no particular order
+     */
+    public int size() {
+        return (int) Math.min(mCount, mSamples.length);
+    }
+
+    public void clear() {
+        mNext = 0;
+        mCount = 0;
+    }
+
+    /**
+     * @return the samples still held, sorted; summarize several percentiles from one copy
+     */
+    public long[] sorted() {
+        long[] sorted = Arrays.copyOf(mSamples, size());
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return the nearest rank percentile of sorted samples, or 0 when there are none
+     */
+    public static long percentile(long[] sorted, int percent) {
+        if (0 == sorted.length) return 0;
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
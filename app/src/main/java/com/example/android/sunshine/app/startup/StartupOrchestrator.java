@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.startup;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the startup work that the first frame doesn't need, as a graph of tasks that each start
+ * once the tasks they depend on have finished.
+ * <p/>
+ * Most tasks run on a couple of low priority background threads, so they don't compete with
+ * the main thread while it draws; tasks that need the UI, such as showing a dialog, can be
+ * added to run on the main thread instead.  A task that fails, or returns false, cancels the
+ * tasks that depend on it.  Each task is traced under its name, so the graph shows up in
+ * systrace next to the frames it runs alongside.
+ */
+public class StartupOrchestrator {
+    private static final String LOG_TAG = StartupOrchestrator.class.getSimpleName();
+
+    private static final int BACKGROUND_THREADS = 2;
+
+    public interface Task {
+        /**
+         * @return false to cancel the tasks that depend on this one
+         */
+        boolean run();
+    }
+
+    private static final class Node {
+        final String name;
+        final Task task;
+        final boolean mainThread;
+        final String[] dependencies;
+        final ArrayList<Node> dependents = new ArrayList<Node>();
+        // Dependencies that haven't finished yet
+        int pending;
+        boolean cancelled;
+
+        Node(String name, Task task, boolean mainThread, String[] dependencies) {
+            this.name = name;
+            this.task = task;
+            this.mainThread = mainThread;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final LinkedHashMap<String, Node> mNodes = new LinkedHashMap<String, Node>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService mExecutor;
+    // Tasks that haven't run or been cancelled yet
+    private int mRemaining;
+    private boolean mStarted;
+
+    /**
+     * Adds a task to run on a background thread once its dependencies have finished.
+     */
+    public StartupOrchestrator addBackgroundTask(String name, Task task, String... dependsOn) {
+        return add(new Node(name, task, false, dependsOn));
+    }
+
+    /**
+     * Adds a task to run on the main thread once its dependencies have finished.
+     */
+    public StartupOrchestrator addMainThreadTask(String name, Task task, String... dependsOn) {
+        return add(new Node(name, task, true, dependsOn));
+    }
+
+    private StartupOrchestrator add(Node node) {
+        if (mStarted) {
+            throw new IllegalStateException("Startup tasks can't be added once started");
+        }
+        if (mNodes.containsKey(node.name)) {
+            throw new IllegalArgumentException("Duplicate startup task: " + node.name);
+        }
+        mNodes.put(node.name, node);
+        return this;
+    }
+
+    /**
+     * Starts every task without dependencies; the rest follow as their dependencies finish.
+     */
+    public void start() {
+        ArrayList<Node> ready = new ArrayList<Node>();
+        synchronized (this) {
+            if (mStarted) {
+                throw new IllegalStateException("Startup tasks were already started");
+            }
+            mStarted = true;
+            for (Node node : mNodes.values()) {
+                for (String dependency : node.dependencies) {
+                    Node parent = mNodes.get(dependency);
+                    if (null == parent) {
+                        throw new IllegalArgumentException("Startup task " + node.name
+                                + " depends on unknown task " + dependency);
+                    }
+                    parent.dependents.add(node);
+                    node.pending++;
+                }
+            }
+            checkForCycles();
+            mRemaining = mNodes.size();
+            boolean needsExecutor = false;
+            for (Node node : mNodes.values()) {
+                if (0 == node.pending) ready.add(node);
+                needsExecutor |= !node.mainThread;
+            }
+            if (needsExecutor) {
+                mExecutor = Executors.newFixedThreadPool(BACKGROUND_THREADS,
+                        new BackgroundThreadFactory());
+            }
+        }
+        for (Node node : ready) {
+            dispatch(node);
+        }
+    }
+
+    // A cycle would leave its tasks waiting forever, so refuse to start at all.
+    private void checkForCycles() {
+        LinkedHashMap<Node, Integer> pending = new LinkedHashMap<Node, Integer>();
+        ArrayList<Node> queue = new ArrayList<Node>();
+        for (Node node : mNodes.values()) {
+            pending.put(node, node.pending);
+            if (0 == node.pending) queue.add(node);
+        }
+        int visited = 0;
+        while (visited < queue.size()) {
+            Node node = queue.get(visited++);
+            for (Node dependent : node.dependents) {
+                int left = pending.get(dependent) - 1;
+                pending.put(dependent, left);
+                if (0 == left) queue.add(dependent);
+            }
+        }
+        if (visited != mNodes.size()) {
+            throw new IllegalArgumentException("Startup tasks have a dependency cycle");
+        }
+    }
+
+    private void dispatch(final Node node) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                boolean succeeded = false;
+                long start = SystemClock.uptimeMillis();
+                TraceCompat.beginSection(node.name);
+                try {
+                    succeeded = node.task.run();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Startup task " + node.name + " failed", e);
+                } finally {
+                    TraceCompat.endSection();
+                }
+                Log.v(LOG_TAG, node.name + " took " + (SystemClock.uptimeMillis() - start)
+                        + "ms" + (succeeded ? "" : ", cancelling its dependents"));
+                onFinished(node, succeeded);
+            }
+        };
+        if (node.mainThread) {
+            mMainHandler.post(runnable);
+        } else {
+            mExecutor.execute(runnable);
+        }
+    }
+
+    private void onFinished(Node node, boolean succeeded) {
+        ArrayList<Node> ready = new ArrayList<Node>();
+        synchronized (this) {
+            mRemaining--;
+            for (Node dependent : node.dependents) {
+                if (!succeeded) {
+                    cancel(dependent);
+                } else if (!dependent.cancelled && 0 == --dependent.pending) {
+                    ready.add(dependent);
+                }
+            }
+            if (0 == mRemaining && null != mExecutor) {
+                mExecutor.shutdown();
+            }
+        }
+        for (Node dependent : ready) {
+            dispatch(dependent);
+        }
+    }
+
+    // Called with the lock held
+    private void cancel(Node node) {
+        if (node.cancelled) return;
+        node.cancelled = true;
+        mRemaining--;
+        for (Node dependent : node.dependents) {
+            cancel(dependent);
+        }
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "Startup #" + mCount.incrementAndGet());
+        }
+    }
+}
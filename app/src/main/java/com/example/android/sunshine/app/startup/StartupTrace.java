@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.startup;
+
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+
+/**
+ * Measures how long a launch of the main screen takes to draw its first frame, and to draw its
+ * first forecast row.
+ * <p/>
+ * Both are measured from {@link #begin()}, called as the activity is created, or restarted when
+ * it comes back from the background.  They are logged, marked in systrace as zero length
+ * sections named after the milestone and its time, and kept until the next launch so tests can
+ * read them.  Everything here runs on the main thread, apart from the getters.
+ */
+public final class StartupTrace {
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    public static final long NOT_MEASURED = -1;
+
+    private static volatile long sLaunchStart = NOT_MEASURED;
+    private static volatile long sTimeToFirstDraw = NOT_MEASURED;
+    private static volatile long sTimeToFirstForecastRow = NOT_MEASURED;
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Starts measuring a launch, discarding the last one's times.
+     */
+    public static void begin() {
+        sLaunchStart = SystemClock.uptimeMillis();
+        sTimeToFirstDraw = NOT_MEASURED;
+        sTimeToFirstForecastRow = NOT_MEASURED;
+    }
+
+    /**
+     * Records the first frame that draws the given window's content.
+     */
+    public static void trackFirstDraw(final View decorView) {
+        final long launchStart = sLaunchStart;
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        if (launchStart == sLaunchStart && NOT_MEASURED == sTimeToFirstDraw) {
+                            sTimeToFirstDraw = mark("first draw");
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Records the first frame that draws a child of the given forecast list.
+     */
+    public static void trackFirstForecastRow(final ViewGroup list) {
+        final long launchStart = sLaunchStart;
+        list.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        if (launchStart != sLaunchStart) {
+                            // A newer launch is being measured
+                            list.getViewTreeObserver().removeOnPreDrawListener(this);
+                        } else if (list.getChildCount() > 0) {
+                            list.getViewTreeObserver().removeOnPreDrawListener(this);
+                            if (NOT_MEASURED == sTimeToFirstForecastRow) {
+                                sTimeToFirstForecastRow = mark("first forecast row");
+                            }
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    private static long mark(String milestone) {
+        long elapsed = SystemClock.uptimeMillis() - sLaunchStart;
+        TraceCompat.beginSection("Startup: " + milestone + " after " + elapsed + "ms");
+        TraceCompat.endSection();
+        Log.i(LOG_TAG, "Time to " + milestone + ": " + elapsed + "ms");
+        return elapsed;
+    }
+
+    /**
+     * @return the milliseconds from the start of the last launch to its first frame, or
+     * {@link #NOT_MEASURED}
+     */
+    public static long getTimeToFirstDraw() {
+        return sTimeToFirstDraw;
+    }
+
+    /**
+     * @return the milliseconds from the start of the last launch to the first frame showing a
+     * forecast row, or {@link #NOT_MEASURED}
+     */
+    public static long getTimeToFirstForecastRow() {
+        return sTimeToFirstForecastRow;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import com.bumptech.glide.BitmapRequestBuilder;
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.PreferenceSnapshot;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.WeatherCondition;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches the art for the forecast we just synced, so that the list, the detail view, the
+ * widgets and the notification find it in Glide's caches instead of each loading it the first
+ * time they show it.
+ * <p/>
+ * Every image is downloaded once into the disk cache, then decoded at the size each consumer
+ * asks for so that those bitmaps are in the memory cache too.  This only helps if the consumers
+ * build their requests the same way, so they all get them from the methods here.
+ * <p/>
+ * Only a few images are fetched at once, and fetching stops once the downloads add up to
+ * {@link #BYTE_BUDGET}; anything left over is loaded lazily as before.
+ */
+public class ArtPrefetcher {
+    public final String LOG_TAG = ArtPrefetcher.class.getSimpleName();
+
+    static final int MAX_CONCURRENT_FETCHES = 2;
+    static final long BYTE_BUDGET = 2 * 1024 * 1024;
+    // How long one image may take, and how long the whole prefetch may hold up the sync
+    static final long FETCH_TIMEOUT_SECONDS = 15;
+    static final long TOTAL_TIMEOUT_SECONDS = 30;
+
+    private static final String[] WEATHER_ID_PROJECTION = new String[]{
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+    private static final int INDEX_WEATHER_ID = 0;
+
+    private final Context mContext;
+    private final AtomicLong mBytesFetched = new AtomicLong();
+
+    public ArtPrefetcher(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Art for the forecast list and the detail view.
+     */
+    public static DrawableRequestBuilder<String> loadViewArt(RequestManager requestManager,
+                                                             String artUrl) {
+        return requestManager.load(artUrl)
+                .diskCacheStrategy(DiskCacheStrategy.ALL);
+    }
+
+    /**
+     * Art for the detail widget, to be loaded at the size of its icon, {@link R.dimen#list_icon}.
+     * Every bitmap is sent to the launcher, so it shouldn't be any bigger than it's shown.
+     */
+    public static BitmapRequestBuilder<String, Bitmap> loadWidgetArt(Context context,
+                                                                     String artUrl) {
+        return Glide.with(context)
+                .load(artUrl)
+                .asBitmap()
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .fitCenter();
+    }
+
+    /**
+     * Art for the notification's large icon, to be loaded at {@link #getLargeIconSize}.
+     */
+    public static BitmapRequestBuilder<String, Bitmap> loadNotificationArt(Context context,
+                                                                           String artUrl) {
+        return Glide.with(context)
+                .load(artUrl)
+                .asBitmap()
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .fitCenter();
+    }
+
+    /**
+     * @return the width and height of a notification's large icon
+     */
+    @SuppressLint("InlinedApi")
+    public static int[] getLargeIconSize(Resources resources) {
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return new int[]{
+                    resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                    resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+            };
+        }
+        int size = resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        return new int[]{size, size};
+    }
+
+    /**
+     * Prefetches the art for the forecast stored for a location, from today on.  Does nothing
+     * when the local graphics are in use.  Blocks, so call it from the sync thread.
+     *
+     * @return the number of images prefetched
+     */
+    public int prefetch(String locationSetting) {
+        PreferenceSnapshot prefs = PreferenceSnapshot.get(mContext);
+        if (prefs.localGraphics) return 0;
+
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(uri, WEATHER_ID_PROJECTION, null,
+                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (null == cursor) return 0;
+        // Several days usually share the same art, so each image is fetched once, in the order
+        // it's first needed.
+        LinkedHashSet<String> artUrls = new LinkedHashSet<String>();
+        String todayArtUrl = null;
+        try {
+            while (cursor.moveToNext()) {
+                WeatherCondition condition = WeatherCondition.forId(cursor.getInt(INDEX_WEATHER_ID));
+                if (null == condition) continue;
+                String artUrl = condition.getArtUrl(prefs.artPack);
+                if (cursor.isFirst()) todayArtUrl = artUrl;
+                artUrls.add(artUrl);
+            }
+        } finally {
+            cursor.close();
+        }
+        return prefetch(new ArrayList<String>(artUrls), todayArtUrl);
+    }
+
+    /**
+     * Prefetches the given art.  Only today's art is shown in the notification, so only it is
+     * decoded at the notification's size.
+     *
+     * @return the number of images prefetched
+     */
+    int prefetch(List<String> artUrls, final String todayArtUrl) {
+        if (artUrls.isEmpty()) return 0;
+        final int listIconSize = mContext.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        final int[] largeIconSize = getLargeIconSize(mContext.getResources());
+        final AtomicLong prefetched = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_CONCURRENT_FETCHES, artUrls.size()));
+        for (final String artUrl : artUrls) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mBytesFetched.get() >= BYTE_BUDGET) return;
+                    try {
+                        File file = get(Glide.with(mContext)
+                                .load(artUrl)
+                                .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL));
+                        if (null == file) return;
+                        mBytesFetched.addAndGet(file.length());
+
+                        // Now the decoded sizes, which come from the disk cache
+                        warm(loadViewArt(Glide.with(mContext), artUrl)
+                                .fitCenter()
+                                .into(listIconSize, listIconSize));
+                        warm(loadWidgetArt(mContext, artUrl)
+                                .into(listIconSize, listIconSize));
+                        if (artUrl.equals(todayArtUrl)) {
+                            warm(loadNotificationArt(mContext, artUrl)
+                                    .into(largeIconSize[0], largeIconSize[1]));
+                        }
+                        prefetched.incrementAndGet();
+                    } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                        Log.w(LOG_TAG, "Error prefetching " + artUrl, e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(TOTAL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Log.w(LOG_TAG, "Art prefetch timed out");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return (int) prefetched.get();
+    }
+
+    /**
+     * @return the total size of the images downloaded by this prefetcher
+     */
+    long getBytesFetched() {
+        return mBytesFetched.get();
+    }
+
+    private static <T> T get(FutureTarget<T> target)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return target.get(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Loads an image, then releases it so that it moves into the memory cache.
+    private static <T> void warm(FutureTarget<T> target)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            get(target);
+        } finally {
+            // Unlike Glide.clear(), this is safe off the main thread
+            target.clear();
+        }
+    }
+}
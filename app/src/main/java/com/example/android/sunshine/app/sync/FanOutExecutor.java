@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Process;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the work of telling the widgets, Muzei, the notification and the watch about new data
+ * once it is stored, so the sync adapter returns as soon as the forecast is in the database.
+ * <p/>
+ * Each delivery runs on its own thread, at the same time as the others, and is interrupted if
+ * it takes longer than its timeout, so a slow art server or an unreachable watch holds up
+ * nothing but itself.  A delivery that fails or times out is forgotten by the
+ * {@link FanOutGate}, so the next sync tries it again even if the data hasn't changed.
+ */
+public class FanOutExecutor {
+    private static final String LOG_TAG = FanOutExecutor.class.getSimpleName();
+
+    private static FanOutExecutor sInstance;
+
+    private final ExecutorService mWorkers = Executors.newCachedThreadPool(
+            newThreadFactory(LOG_TAG));
+    // Interrupts deliveries that run over their time
+    private final ScheduledExecutorService mWatchdog = Executors.newSingleThreadScheduledExecutor(
+            newThreadFactory(LOG_TAG + " watchdog"));
+
+    private FanOutExecutor() {
+    }
+
+    public static synchronized FanOutExecutor getInstance() {
+        if (null == sInstance) {
+            sInstance = new FanOutExecutor();
+        }
+        return sInstance;
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name);
+            }
+        };
+    }
+
+    /**
+     * Starts a delivery, and returns without waiting for it.
+     *
+     * @param consumer       the consumer being updated, e.g. {@link FanOutGate#WIDGETS}
+     * @param delivery       the work of updating it
+     * @param timeoutSeconds how long it may take before it is interrupted
+     * @param gate           the gate that let the update through, told if it doesn't arrive,
+     *                       or null
+     * @return the delivery, done once it has finished, failed or been interrupted
+     */
+    public Future<?> execute(final String consumer, final Runnable delivery,
+                             final long timeoutSeconds, final FanOutGate gate) {
+        final Future<?> future = mWorkers.submit(new Runnable() {
+            @Override
+            public void run() {
+                TraceCompat.beginSection("Fan out to " + consumer);
+                try {
+                    delivery.run();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Error updating " + consumer, e);
+                    if (null != gate) gate.forget(consumer);
+                } finally {
+                    TraceCompat.endSection();
+                }
+            }
+        });
+        mWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (future.cancel(true)) {
+                    Log.w(LOG_TAG, "Updating " + consumer + " took over " + timeoutSeconds
+                            + "s, interrupted");
+                    if (null != gate) gate.forget(consumer);
+                }
+            }
+        }, timeoutSeconds, TimeUnit.SECONDS);
+        return future;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Decides which of the things that show the forecast outside the app need to hear about a sync.
+ * <p/>
+ * Each consumer is given a hash of just the data it shows, which the gate compares with the hash
+ * it last delivered to that consumer.  Most periodic syncs bring back the same forecast, and
+ * then the widgets, Muzei, the notification and the watch are left alone instead of being woken
+ * to redraw exactly what they already show.  The hashes, and counts of the updates delivered and
+ * skipped, are kept in their own preferences file so they survive the sync process.
+ */
+public class FanOutGate {
+    public static final String WIDGETS = "widgets";
+    public static final String MUZEI = "muzei";
+    public static final String NOTIFICATION = "notification";
+    public static final String WEARABLE = "wearable";
+
+    private static final String PREFS_NAME = "fan_out_state";
+    private static final String KEY_HASH = "hash_";
+    private static final String KEY_DELIVERED = "delivered_";
+    private static final String KEY_SKIPPED = "skipped_";
+
+    private final SharedPreferences mPrefs;
+
+    public FanOutGate(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Offers a consumer its view of the new data.
+     *
+     * @param consumer one of the consumer names, e.g. {@link #WIDGETS}
+     * @param hash     a hash of everything the consumer shows
+     * @return true if the consumer should be updated, in which case the hash is remembered as
+     * delivered; false if it was last given the same data
+     */
+    public synchronized boolean offer(String consumer, int hash) {
+        String hashKey = KEY_HASH + consumer;
+        if (mPrefs.contains(hashKey) && mPrefs.getInt(hashKey, 0) == hash) {
+            String skippedKey = KEY_SKIPPED + consumer;
+            mPrefs.edit().putInt(skippedKey, mPrefs.getInt(skippedKey, 0) + 1).commit();
+            return false;
+        }
+        String deliveredKey = KEY_DELIVERED + consumer;
+        mPrefs.edit()
+                .putInt(hashKey, hash)
+                .putInt(deliveredKey, mPrefs.getInt(deliveredKey, 0) + 1)
+                .commit();
+        return true;
+    }
+
+    /**
+     * Forgets what the consumers were last given, so the next offer to each is delivered.  Used
+     * when they have been updated some other way.
+     */
+    public synchronized void forget(String... consumers) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String consumer : consumers) {
+            editor.remove(KEY_HASH + consumer);
+        }
+        editor.commit();
+    }
+
+    public int getDeliveredCount(String consumer) {
+        return mPrefs.getInt(KEY_DELIVERED + consumer, 0);
+    }
+
+    public int getSkippedCount(String consumer) {
+        return mPrefs.getInt(KEY_SKIPPED + consumer, 0);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.PreferenceSnapshot;
+import com.example.android.sunshine.app.WeatherCondition;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The notification's large icon for every kind of weather, already scaled to the size the
+ * notification shows it at, in memory and on disk.
+ * <p/>
+ * Icons are keyed by the kind of weather, the art pack and the size, and are rendered in the
+ * background whenever the art pack changes and after each sync, so building the notification
+ * only has to read a small PNG; the full-size art is never downloaded or decoded for it.  Icons
+ * for other art packs or sizes are deleted as the current ones are rendered.
+ */
+public class NotificationArtCache {
+    private static final String LOG_TAG = NotificationArtCache.class.getSimpleName();
+
+    static final String CACHE_DIR = "notification_art";
+    // Room for every kind of weather at the largest notification icon size
+    private static final int MEMORY_CACHE_BYTES = 2 * 1024 * 1024;
+
+    private static NotificationArtCache sInstance;
+
+    private final Context mContext;
+    private final File mDir;
+    private final LruCache<String, Bitmap> mMemoryCache =
+            new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getRowBytes() * bitmap.getHeight();
+                }
+            };
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, LOG_TAG);
+                }
+            });
+
+    private NotificationArtCache(Context context) {
+        mContext = context;
+        mDir = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    public static synchronized NotificationArtCache getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new NotificationArtCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the cached icon for a condition id in the current art pack, or null if it hasn't
+     * been rendered yet
+     */
+    public Bitmap get(int weatherId) {
+        WeatherCondition condition = WeatherCondition.forId(weatherId);
+        if (null == condition) return null;
+        return read(getKey(condition, PreferenceSnapshot.get(mContext).artPack));
+    }
+
+    /**
+     * Renders the icons for the current art pack in the background.
+     */
+    public void populateAsync() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                populate();
+            }
+        });
+    }
+
+    /**
+     * Renders any icons missing for the current art pack, and deletes the ones for other art
+     * packs and sizes.  Blocks, so never call on the main thread.
+     *
+     * @return the number of icons rendered
+     */
+    public synchronized int populate() {
+        PreferenceSnapshot prefs = PreferenceSnapshot.get(mContext);
+        HashSet<String> current = new HashSet<String>();
+        int rendered = 0;
+        for (WeatherCondition condition : WeatherCondition.values()) {
+            String key = getKey(condition, prefs.artPack);
+            // Conditions sharing art share an icon
+            if (!current.add(key)) continue;
+            if (!getFile(key).exists() && null != render(key, condition, prefs)) {
+                rendered++;
+            }
+        }
+        File[] files = mDir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!current.contains(name.substring(0, Math.max(0, name.lastIndexOf('.'))))) {
+                    file.delete();
+                }
+            }
+        }
+        return rendered;
+    }
+
+    // Icons are rendered again at a new size when the display's density changes
+    private String getKey(WeatherCondition condition, String artPack) {
+        int[] size = ArtPrefetcher.getLargeIconSize(mContext.getResources());
+        return String.format(Locale.US, "%s_%08x_%dx%d",
+                condition.artSlug, artPack.hashCode(), size[0], size[1]);
+    }
+
+    private File getFile(String key) {
+        return new File(mDir, key + ".png");
+    }
+
+    private Bitmap read(String key) {
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (null != bitmap) return bitmap;
+        File file = getFile(key);
+        if (!file.exists()) return null;
+        bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (null != bitmap) {
+            mMemoryCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    private Bitmap render(String key, WeatherCondition condition, PreferenceSnapshot prefs) {
+        int[] size = ArtPrefetcher.getLargeIconSize(mContext.getResources());
+        Bitmap bitmap;
+        if (prefs.localGraphics) {
+            bitmap = decodeResource(mContext.getResources(), condition.artResource, size);
+        } else {
+            bitmap = download(condition.getArtUrl(prefs.artPack), size);
+            if (null == bitmap) {
+                // Not cached, so the art is tried again next time
+                return decodeResource(mContext.getResources(), condition.artResource, size);
+            }
+        }
+        if (null == bitmap) return null;
+        mMemoryCache.put(key, bitmap);
+        write(key, bitmap);
+        return bitmap;
+    }
+
+    private Bitmap download(String artUrl, int[] size) {
+        FutureTarget<Bitmap> target = ArtPrefetcher.loadNotificationArt(mContext, artUrl)
+                .into(size[0], size[1]);
+        try {
+            // Glide keeps the bitmap it gives us, so keep a copy of our own
+            Bitmap bitmap = target.get(ArtPrefetcher.FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return bitmap.copy(bitmap.getConfig(), false);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            Log.w(LOG_TAG, "Error downloading " + artUrl, e);
+            return null;
+        } finally {
+            target.clear();
+        }
+    }
+
+    /**
+     * Decodes a drawable at no more than twice the size, then scales it to fit, so the full-size
+     * art is never decoded.
+     *
+     * @return the scaled bitmap, or null if the drawable couldn't be decoded
+     */
+    public static Bitmap decodeResource(Resources resources, int resId, int[] size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (options.outWidth / (options.inSampleSize * 2) >= size[0]
+                && options.outHeight / (options.inSampleSize * 2) >= size[1]) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap decoded = BitmapFactory.decodeResource(resources, resId, options);
+        if (null == decoded) return null;
+
+        float scale = Math.min((float) size[0] / decoded.getWidth(),
+                (float) size[1] / decoded.getHeight());
+        int width = Math.max(1, Math.round(decoded.getWidth() * scale));
+        int height = Math.max(1, Math.round(decoded.getHeight() * scale));
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+        if (scaled != decoded) decoded.recycle();
+        return scaled;
+    }
+
+    private void write(String key, Bitmap bitmap) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) return;
+        // Written aside and renamed, so readers never see half an icon
+        File file = getFile(key);
+        File tmp = new File(mDir, key + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing " + file, e);
+            tmp.delete();
+        } finally {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing " + tmp, e);
+                }
+            }
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -24,23 +23,23 @@ import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.PreferenceSnapshot;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.wear.ForecastPayload;
+import com.example.android.sunshine.app.wear.WearableArtCache;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
@@ -51,7 +50,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -59,8 +57,10 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Vector;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -72,6 +72,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // How long each consumer may take to be updated after a sync
+    private static final long BROADCAST_TIMEOUT_SECONDS = 10;
+    private static final long NOTIFICATION_TIMEOUT_SECONDS = ArtPrefetcher.FETCH_TIMEOUT_SECONDS + 5;
+    private static final long WEARABLE_TIMEOUT_SECONDS = 20;
+    private static final long PREFETCH_TIMEOUT_SECONDS = ArtPrefetcher.TOTAL_TIMEOUT_SECONDS + 5;
 
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
@@ -99,9 +104,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_INVALID = 4;
 
     private final String TAG = "GoogleApiClient :";
-    private final String LOW_KEY = "key_low";
-    private final String HIGH_KEY = "key_high";
-    private final String ASSET_KEY = "key_asset";
     private final String WEATHER_DATAMAP = "/weather";
     private final String TIME_STAMP_KEY = "time";
     private GoogleApiClient mGoogleApiClient;
@@ -142,9 +144,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         // We no longer need just the location String, but also potentially the latitude and
         // longitude, in case we are syncing based on a new Place Picker API result.
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        PreferenceSnapshot settings = PreferenceSnapshot.get(context);
+        String locationQuery = settings.location;
+        String locationLatitude = String.valueOf(settings.latitude);
+        String locationLongitude = String.valueOf(settings.longitude);
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
@@ -180,7 +183,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
             // service may not understand the location address provided by the Place Picker API
             // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
+            if (settings.latLonAvailable) {
                 uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
                         .appendQueryParameter(LON_PARAM, locationLongitude);
             } else {
@@ -395,10 +398,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
 
-                if (i == 0) {
-                    sendWeatherToWearable(low, high, weatherId);
-                }
-
                 cVVector.add(weatherValues);
             }
 
@@ -414,13 +413,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                         WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
                         new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+                // Refresh the on-disk snapshot before telling anyone about the new data, so
+                // widgets and Muzei can read it without opening the database.
+                ForecastSnapshot.writeFromProvider(getContext(), locationSetting);
             }
             Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
+            // Committed before the fan out, so the widgets and Muzei never see the status of
+            // an earlier attempt alongside the new data.
             setLocationStatus(getContext(), LOCATION_STATUS_OK);
 
+            if (cVVector.size() > 0) {
+                // The data is stored; everything else happens after we return.
+                fanOut(locationSetting, cVVector);
+            }
+
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
@@ -428,80 +434,202 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private void sendWeatherToWearable(double low, double high, int weatherId) {
+    /**
+     * Updates the widgets, Muzei, the notification and the watch, but only those whose view of
+     * the forecast differs from what they were last given.  The updates run on the
+     * {@link FanOutExecutor}, so this returns without waiting for any of them.
+     *
+     * @param locationSetting the location the forecast is for
+     * @param days            the forecast as inserted, starting with today
+     */
+    private void fanOut(final String locationSetting, Vector<ContentValues> days) {
+        final Context context = getContext();
+        FanOutExecutor executor = FanOutExecutor.getInstance();
+
+        // Fetch the art for the new forecast now, rather than each of the widgets, the
+        // notification and the list fetching it when they first show it.
+        executor.execute("art", new Runnable() {
+            @Override
+            public void run() {
+                new ArtPrefetcher(context).prefetch(locationSetting);
+                // and render any notification icons still missing, e.g. on a first sync
+                NotificationArtCache.getInstance(context).populate();
+            }
+        }, PREFETCH_TIMEOUT_SECONDS, null);
+
+        PreferenceSnapshot settings = PreferenceSnapshot.get(context);
+        final FanOutGate gate = new FanOutGate(context);
+        ContentValues today = days.get(0);
+        final long todayDate = today.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        final int todayWeatherId = today.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        double todayHigh = today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        double todayLow = today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        String todayDesc = today.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+
+        // The widgets show every day's date, art, description and temperatures
+        ArrayList<Object> widgetData = new ArrayList<Object>(days.size() * 5 + 3);
+        widgetData.add(locationSetting);
+        widgetData.add(settings.metric);
+        widgetData.add(settings.artPack);
+        for (ContentValues day : days) {
+            widgetData.add(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            widgetData.add(day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+            widgetData.add(day.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+            widgetData.add(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+            widgetData.add(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+        }
+        if (gate.offer(FanOutGate.WIDGETS, widgetData.hashCode())) {
+            executor.execute(FanOutGate.WIDGETS, new Runnable() {
+                @Override
+                public void run() {
+                    updateWidgets(context);
+                }
+            }, BROADCAST_TIMEOUT_SECONDS, gate);
+        }
+
+        // Muzei shows today's image, titled with its description and the location
+        if (gate.offer(FanOutGate.MUZEI, Arrays.hashCode(new Object[]{
+                locationSetting, todayWeatherId, todayDesc}))) {
+            executor.execute(FanOutGate.MUZEI, new Runnable() {
+                @Override
+                public void run() {
+                    updateMuzei(context);
+                }
+            }, BROADCAST_TIMEOUT_SECONDS, gate);
+        }
+
+        if (gate.offer(FanOutGate.NOTIFICATION, Arrays.hashCode(new Object[]{
+                locationSetting, settings.notificationsEnabled, settings.metric,
+                settings.artPack, todayDate, todayWeatherId, todayDesc, todayHigh, todayLow}))) {
+            executor.execute(FanOutGate.NOTIFICATION, new Runnable() {
+                @Override
+                public void run() {
+                    // Posting is throttled to once a day, so an update that wasn't posted is
+                    // offered again by the next sync
+                    if (!notifyWeather()) {
+                        gate.forget(FanOutGate.NOTIFICATION);
+                    }
+                }
+            }, NOTIFICATION_TIMEOUT_SECONDS, gate);
+        }
+
+        // The watch shows every day, and formats the temperatures itself, so the payload is
+        // exactly what it shows
+        int[] weatherIds = new int[days.size()];
+        double[] highs = new double[days.size()];
+        double[] lows = new double[days.size()];
+        for (int i = 0; i < days.size(); i++) {
+            ContentValues day = days.get(i);
+            weatherIds[i] = day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            highs[i] = day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            lows[i] = day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        }
+        final byte[] forecast = ForecastPayload.encode(todayDate, weatherIds, highs, lows);
+        if (gate.offer(FanOutGate.WEARABLE, Arrays.hashCode(forecast))) {
+            executor.execute(FanOutGate.WEARABLE, new Runnable() {
+                @Override
+                public void run() {
+                    sendWeatherToWearable(forecast, todayWeatherId);
+                }
+            }, WEARABLE_TIMEOUT_SECONDS, gate);
+        }
+
+        Log.d(LOG_TAG, "Fan-out delivered/skipped: widgets "
+                + gate.getDeliveredCount(FanOutGate.WIDGETS) + "/"
+                + gate.getSkippedCount(FanOutGate.WIDGETS) + ", muzei "
+                + gate.getDeliveredCount(FanOutGate.MUZEI) + "/"
+                + gate.getSkippedCount(FanOutGate.MUZEI) + ", notification "
+                + gate.getDeliveredCount(FanOutGate.NOTIFICATION) + "/"
+                + gate.getSkippedCount(FanOutGate.NOTIFICATION) + ", wearable "
+                + gate.getDeliveredCount(FanOutGate.WEARABLE) + "/"
+                + gate.getSkippedCount(FanOutGate.WEARABLE));
+    }
+
+    private void sendWeatherToWearable(byte[] forecast, int weatherId) {
 
         if (mGoogleApiClient == null) {
             return;
         }
 
-        mGoogleApiClient.connect();
-
-        Bitmap bitmap = BitmapFactory.decodeResource(getContext().getResources(),
-                Utility.getArtResourceForWeatherCondition(weatherId));
-        Asset asset = createAssetFromBitmap(bitmap);
+        // We're on a fan-out thread, so wait for the connection rather than queueing the
+        // request on a client that may never connect
+        ConnectionResult connection = mGoogleApiClient.blockingConnect(
+                WEARABLE_TIMEOUT_SECONDS / 2, TimeUnit.SECONDS);
+        if (!connection.isSuccess()) {
+            Log.d(TAG, "Data to wearable not sent: " + connection);
+            throw new IllegalStateException("Couldn't connect to the wearable API");
+        }
 
         PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_DATAMAP).setUrgent();
         putDataMapRequest.getDataMap().putLong(TIME_STAMP_KEY, System.currentTimeMillis());
-        putDataMapRequest.getDataMap().putDouble(LOW_KEY, low);
-        putDataMapRequest.getDataMap().putDouble(HIGH_KEY, high);
-        putDataMapRequest.getDataMap().putAsset(ASSET_KEY, asset);
+        putDataMapRequest.getDataMap().putByteArray(ForecastPayload.FORECAST_KEY, forecast);
+        // Only the art's id; the watch asks for the art itself if it doesn't have it yet
+        putDataMapRequest.getDataMap().putString(WearableArtCache.ART_ID_KEY,
+                WearableArtCache.getArtId(weatherId));
 
         PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
         putDataRequest.setUrgent();
 
-        Wearable.DataApi.putDataItem(mGoogleApiClient, putDataRequest)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                        if (dataItemResult.getStatus().isSuccess()) {
-                            Log.d(TAG, "Data to wearable sent");
-                        } else {
-                            Log.d(TAG, "Data to wearable not sent");
-                        }
-                    }
-                });
-    }
-
-    private Asset createAssetFromBitmap(Bitmap bitmap) {
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
+        DataApi.DataItemResult dataItemResult = Wearable.DataApi
+                .putDataItem(mGoogleApiClient, putDataRequest)
+                .await(WEARABLE_TIMEOUT_SECONDS / 2, TimeUnit.SECONDS);
+        if (dataItemResult.getStatus().isSuccess()) {
+            Log.d(TAG, "Data to wearable sent");
+        } else {
+            Log.d(TAG, "Data to wearable not sent");
+            throw new IllegalStateException("Data to wearable not sent: "
+                    + dataItemResult.getStatus());
+        }
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
+    private static void updateWidgets(Context context) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
                 .setPackage(context.getPackageName());
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private static void updateMuzei(Context context) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
                     .setClass(context, WeatherMuzeiSource.class));
         }
     }
 
-    private void notifyWeather() {
+    /**
+     * Tells the widgets and Muzei that the data for the preferred location changed without a
+     * sync, e.g. because the user switched to a location that is already cached.
+     *
+     * @param context Context used to send the broadcast
+     */
+    public static void notifyDataUpdated(Context context) {
+        // They now show something other than what the last sync gave them
+        new FanOutGate(context).forget(FanOutGate.WIDGETS, FanOutGate.MUZEI);
+        updateWidgets(context);
+        updateMuzei(context);
+    }
+
+    /**
+     * @return true if a notification was posted; false if notifications are off, one was
+     * already posted in the last day, or there's no weather for today
+     */
+    private boolean notifyWeather() {
         Context context = getContext();
+        boolean posted = false;
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        PreferenceSnapshot settings = PreferenceSnapshot.get(context);
 
-        if (displayNotifications) {
+        if (settings.notificationsEnabled) {
 
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
             long lastSync = prefs.getLong(lastNotificationKey, 0);
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
+                String locationQuery = settings.location;
 
                 Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
 
@@ -516,40 +644,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+
+                    // The icon is pre-scaled by the art cache.  It's rendered alongside us, so
+                    // on a first sync or just after the art pack changes, use the small icon
+                    // rather than wait for the art.
+                    Bitmap largeIcon = NotificationArtCache.getInstance(context).get(weatherId);
+                    if (null == largeIcon) {
+                        largeIcon = BitmapFactory.decodeResource(resources, iconId);
                     }
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
                     String contentText = String.format(context.getString(R.string.format_notification),
                             desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
+                            settings.formatTemperature(high),
+                            settings.formatTemperature(low));
 
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
@@ -587,10 +696,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     SharedPreferences.Editor editor = prefs.edit();
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
+                    posted = true;
                 }
                 cursor.close();
             }
         }
+        return posted;
     }
 
     /**
@@ -627,6 +738,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+            // The location is only ever fetched because the user picked it.
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_USED, System.currentTimeMillis());
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_USE_COUNT, 1);
 
             // Finally, insert location data into the database.
             Uri insertedUri = getContext().getContentResolver().insert(
@@ -742,10 +856,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param c              Context to get the PreferenceManager from.
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus) {
+    static public void setLocationStatus(Context c, @LocationStatus int locationStatus) {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.commit();
+        PreferenceSnapshot.refresh(c);
     }
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.text.format.Time;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs the stored forecast into the few bytes the watch face needs, so the watch gets every
+ * day with each sync, in a single entry of the weather data item, instead of only today.
+ * <p/>
+ * The watch face decodes it with its own copy of this class, so if you change the layout you
+ * must increment the version, and change both.  Layout (big endian):
+ * <pre>
+ * header: byte version, byte count, int julian day of the first day
+ * days:   count * (short weather id, short high, short low), one for each consecutive day
+ * </pre>
+ * Days are local julian days, so the watch can match them to its own calendar days whatever the
+ * time zone, and across daylight saving changes.  Temperatures are in tenths of a degree
+ * Celsius.
+ */
+public final class ForecastPayload {
+    public static final String FORECAST_KEY = "key_forecast";
+
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 6;
+    static final int DAY_SIZE = 6;
+    // The count is a single unsigned byte
+    static final int MAX_DAYS = 255;
+
+    private ForecastPayload() {
+    }
+
+    /**
+     * @param firstDate  the normalized date of the first day, local midnight as stored
+     * @param weatherIds each day's condition id, from the first day on
+     * @param highs      each day's high, in Celsius
+     * @param lows       each day's low, in Celsius
+     * @return the payload for the watch
+     */
+    public static byte[] encode(long firstDate, int[] weatherIds, double[] highs, double[] lows) {
+        int count = Math.min(weatherIds.length, MAX_DAYS);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * DAY_SIZE);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) count);
+        buffer.putInt(getJulianDay(firstDate));
+        for (int i = 0; i < count; i++) {
+            buffer.putShort((short) weatherIds[i]);
+            buffer.putShort(toTenths(highs[i]));
+            buffer.putShort(toTenths(lows[i]));
+        }
+        return buffer.array();
+    }
+
+    static int getJulianDay(long date) {
+        Time time = new Time();
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    private static short toTenths(double temperature) {
+        long tenths = Math.round(temperature * 10);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, tenths));
+    }
+}
@@ -1,25 +1,92 @@
 package com.example.android.sunshine.app.wear;
 
+import android.net.Uri;
+import android.util.Log;
+
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by neeraj on 5/8/16.
  */
 public class SunshineWatchFaceListener extends WearableListenerService {
 
+    private static final String LOG_TAG = SunshineWatchFaceListener.class.getSimpleName();
+    private static final long TIMEOUT_SECONDS = 10;
+
     private final String WEATHER_REQUEST = "/weather_request";
 
     @Override
     public void onDataChanged(DataEventBuffer dataEvents) {
+        // The buffer is released when we return, so collect what we need first
+        ArrayList<String> artIds = new ArrayList<String>();
         for (DataEvent dataEvent : dataEvents) {
             if (dataEvent.getType() == DataEvent.TYPE_CHANGED) {
-                if (dataEvent.getDataItem().getUri().getPath().compareTo(WEATHER_REQUEST) == 0) {
+                Uri uri = dataEvent.getDataItem().getUri();
+                if (uri.getPath().compareTo(WEATHER_REQUEST) == 0) {
                     SunshineSyncAdapter.syncImmediately(this);
+                } else if (uri.getPath().compareTo(WearableArtCache.ART_REQUEST_PATH) == 0) {
+                    String artId = DataMapItem.fromDataItem(dataEvent.getDataItem()).getDataMap()
+                            .getString(WearableArtCache.ART_ID_KEY);
+                    if (null != artId && !artIds.contains(artId)) {
+                        artIds.add(artId);
+                    }
+                }
+            }
+        }
+        if (!artIds.isEmpty()) {
+            sendArt(artIds);
+        }
+    }
+
+    // Sends the watch art it doesn't have.  We're called on a background thread, so can wait.
+    private void sendArt(ArrayList<String> artIds) {
+        GoogleApiClient client = new GoogleApiClient.Builder(this)
+                .addApi(Wearable.API)
+                .build();
+        ConnectionResult connection = client.blockingConnect(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!connection.isSuccess()) {
+            Log.d(LOG_TAG, "Art to wearable not sent: " + connection);
+            return;
+        }
+        try {
+            WearableArtCache cache = WearableArtCache.getInstance(this);
+            for (String artId : artIds) {
+                byte[] bytes = cache.getBytes(artId);
+                if (null == bytes) {
+                    Log.w(LOG_TAG, "The wearable asked for unknown art " + artId);
+                    continue;
                 }
+                PutDataMapRequest putDataMapRequest =
+                        PutDataMapRequest.create(WearableArtCache.ART_PATH_PREFIX + artId);
+                putDataMapRequest.getDataMap().putString(WearableArtCache.ART_ID_KEY, artId);
+                putDataMapRequest.getDataMap().putLong(WearableArtCache.ART_TIME_STAMP_KEY,
+                        System.currentTimeMillis());
+                putDataMapRequest.getDataMap().putAsset(WearableArtCache.ART_ASSET_KEY,
+                        Asset.createFromBytes(bytes));
+                PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
+                putDataRequest.setUrgent();
+                DataApi.DataItemResult result = Wearable.DataApi
+                        .putDataItem(client, putDataRequest)
+                        .await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                Log.d(LOG_TAG, "Art " + artId + " (" + bytes.length + " bytes) to wearable "
+                        + (result.getStatus().isSuccess() ? "sent" : "not sent"));
             }
+        } finally {
+            client.disconnect();
         }
     }
 }
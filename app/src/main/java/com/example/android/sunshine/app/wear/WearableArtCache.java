@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.example.android.sunshine.app.WeatherCondition;
+import com.example.android.sunshine.app.sync.NotificationArtCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The watch face's weather art, encoded once for each kind of weather and kept in memory and on
+ * disk, and the ids the phone and the watch use to refer to it.
+ * <p/>
+ * Syncs send the watch only the art's id along with the temperatures.  The watch keeps the art
+ * it has been sent, and asks for an id it doesn't have by putting a data item at
+ * {@link #ART_REQUEST_PATH}; {@link SunshineWatchFaceListener} answers with the encoded art as
+ * an asset at {@link #ART_PATH_PREFIX} followed by the id.  So each image crosses to the watch
+ * once, rather than with every sync.
+ */
+public class WearableArtCache {
+    private static final String LOG_TAG = WearableArtCache.class.getSimpleName();
+
+    // The watch asks for art by putting its id here
+    public static final String ART_REQUEST_PATH = "/art_request";
+    // and it's sent to the path made by adding the id to this
+    public static final String ART_PATH_PREFIX = "/art/";
+    public static final String ART_ID_KEY = "key_art_id";
+    public static final String ART_ASSET_KEY = "key_asset";
+    // Changes with every send, so the watch hears about art it asks for again after losing it
+    public static final String ART_TIME_STAMP_KEY = "time";
+
+    // Big enough for the watch face's 40dp icon on an xhdpi watch, which scales it to fit
+    static final int ART_SIZE = 80;
+    // If you change how the art is encoded, you must increment the version, so watches holding
+    // the old encoding ask for the new one.
+    static final int VERSION = 1;
+    static final String CACHE_DIR = "wearable_art";
+
+    private static WearableArtCache sInstance;
+
+    private final Context mContext;
+    private final File mDir;
+    private final HashMap<String, byte[]> mEncoded = new HashMap<String, byte[]>();
+
+    private WearableArtCache(Context context) {
+        mContext = context;
+        mDir = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    public static synchronized WearableArtCache getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new WearableArtCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the id of the art for a condition id, or null if there's no art for it
+     */
+    public static String getArtId(int weatherId) {
+        WeatherCondition condition = WeatherCondition.forId(weatherId);
+        return null == condition ? null : getArtId(condition);
+    }
+
+    private static String getArtId(WeatherCondition condition) {
+        return String.format(Locale.US, "%s_%d_v%d", condition.artSlug, ART_SIZE, VERSION);
+    }
+
+    /**
+     * @return the encoded art with an id, encoding it first if this is the first time it's
+     * been asked for, or null if the id isn't one of ours
+     */
+    public synchronized byte[] getBytes(String artId) {
+        byte[] bytes = mEncoded.get(artId);
+        if (null != bytes) return bytes;
+
+        WeatherCondition found = null;
+        for (WeatherCondition condition : WeatherCondition.values()) {
+            if (getArtId(condition).equals(artId)) {
+                found = condition;
+                break;
+            }
+        }
+        if (null == found) return null;
+
+        File file = new File(mDir, artId + ".png");
+        bytes = read(file);
+        if (null == bytes) {
+            bytes = encode(found);
+            if (null == bytes) return null;
+            write(file, bytes);
+        }
+        mEncoded.put(artId, bytes);
+        return bytes;
+    }
+
+    private byte[] encode(WeatherCondition condition) {
+        Bitmap bitmap = NotificationArtCache.decodeResource(mContext.getResources(),
+                condition.artResource, new int[]{ART_SIZE, ART_SIZE});
+        if (null == bitmap) return null;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private static byte[] read(File file) {
+        if (!file.exists()) return null;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int count = in.read(bytes, offset, bytes.length - offset);
+                if (count < 0) return null;
+                offset += count;
+            }
+            return bytes;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error reading " + file, e);
+            return null;
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing " + file, e);
+                }
+            }
+        }
+    }
+
+    private void write(File file, byte[] bytes) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) return;
+        // Written aside and renamed, so a half-written file is never read back
+        File tmp = new File(mDir, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(bytes);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing " + file, e);
+            tmp.delete();
+        } finally {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing " + tmp, e);
+                }
+            }
+        }
+    }
+}
@@ -2,23 +2,29 @@ package com.example.android.sunshine.app.widget;
 
 import android.annotation.TargetApi;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.Binder;
 import android.os.Build;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
 import android.util.Log;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.ForecastRepository;
+import com.example.android.sunshine.app.ForecastRow;
 import com.example.android.sunshine.app.R;
-import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ArtPrefetcher;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
@@ -26,26 +32,39 @@ import java.util.concurrent.ExecutionException;
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     public final String LOG_TAG = DetailWidgetRemoteViewsService.class.getSimpleName();
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-            WeatherContract.WeatherEntry.COLUMN_DATE,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    static final int INDEX_WEATHER_ID = 0;
-    static final int INDEX_WEATHER_DATE = 1;
-    static final int INDEX_WEATHER_CONDITION_ID = 2;
-    static final int INDEX_WEATHER_DESC = 3;
-    static final int INDEX_WEATHER_MAX_TEMP = 4;
-    static final int INDEX_WEATHER_MIN_TEMP = 5;
+
+    // Enough for every image an art pack has, so a new forecast seldom decodes any
+    private static final int MAX_CACHED_ART = 12;
+    // How long onDataSetChanged may wait for all of the art
+    private static final long ART_TIMEOUT_MILLIS = 15000;
+
+    // An image decoded for the widget.  The bitmap belongs to Glide until the load is cleared.
+    private static final class Art {
+        final String url;
+        final FutureTarget<Bitmap> target;
+        Bitmap bitmap;
+
+        Art(String url, FutureTarget<Bitmap> target) {
+            this.url = url;
+            this.target = target;
+        }
+    }
 
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
-            private Cursor data = null;
+            // Formatted by the ForecastRepository, which the app's screens share
+            private List<ForecastRow> rows = Collections.emptyList();
+            private String locationSetting = null;
+            // Art by URL, ready by the time the rows are
+            private final LruCache<String, Art> art = new LruCache<String, Art>(MAX_CACHED_ART) {
+                @Override
+                protected void entryRemoved(boolean evicted, String key, Art oldValue,
+                                            Art newValue) {
+                    // Unlike Glide.clear(), this is safe off the main thread
+                    oldValue.target.clear();
+                }
+            };
 
             @Override
             public void onCreate() {
@@ -54,91 +73,87 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public void onDataSetChanged() {
-                if (data != null) {
-                    data.close();
+                // This method is called by the app hosting the widget (e.g., the launcher).
+                // The repository queries our ContentProvider from its own thread, so that
+                // happens with our process' identity and permissions.
+                ForecastRepository.Forecast forecast = ForecastRepository
+                        .getInstance(DetailWidgetRemoteViewsService.this).get();
+                if (null == forecast) {
+                    rows = Collections.emptyList();
+                } else {
+                    rows = forecast.rows;
+                    locationSetting = forecast.locationSetting;
+                }
+                loadArt();
+            }
+
+            // Loads every image the rows need that isn't cached yet, all at once, at the size
+            // of the widget's icon.  Several days usually share an image, so each is loaded once.
+            private void loadArt() {
+                int iconSize = getResources().getDimensionPixelSize(R.dimen.list_icon);
+                ArrayList<Art> loading = new ArrayList<Art>();
+                for (ForecastRow row : rows) {
+                    if (null == row.artUrl || null != art.get(row.artUrl)) continue;
+                    Art loaded = new Art(row.artUrl, ArtPrefetcher.loadWidgetArt(
+                            DetailWidgetRemoteViewsService.this, row.artUrl)
+                            .into(iconSize, iconSize));
+                    art.put(row.artUrl, loaded);
+                    loading.add(loaded);
+                }
+
+                long deadline = SystemClock.uptimeMillis() + ART_TIMEOUT_MILLIS;
+                for (Art loaded : loading) {
+                    try {
+                        loaded.bitmap = loaded.target.get(
+                                Math.max(0, deadline - SystemClock.uptimeMillis()),
+                                TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                        Log.e(LOG_TAG, "Error retrieving large icon from " + loaded.url, e);
+                        // Try again next time
+                        art.remove(loaded.url);
+                    }
                 }
-                // This method is called by the app hosting the widget (e.g., the launcher)
-                // However, our ContentProvider is not exported so it doesn't have access to the
-                // data. Therefore we need to clear (and finally restore) the calling identity so
-                // that calls use our process and permission
-                final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
-                        FORECAST_COLUMNS,
-                        null,
-                        null,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-                Binder.restoreCallingIdentity(identityToken);
             }
 
             @Override
             public void onDestroy() {
-                if (data != null) {
-                    data.close();
-                    data = null;
-                }
+                rows = Collections.emptyList();
+                art.evictAll();
             }
 
             @Override
             public int getCount() {
-                return data == null ? 0 : data.getCount();
+                return rows.size();
             }
 
             @Override
             public RemoteViews getViewAt(int position) {
-                if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
+                if (position == AdapterView.INVALID_POSITION || position >= rows.size()) {
                     return null;
                 }
+                ForecastRow row = rows.get(position);
                 RemoteViews views = new RemoteViews(getPackageName(),
                         R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-                int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
-                }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
-                String formattedDate = Utility.getFriendlyDayString(
-                        DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
-                String formattedMaxTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
-                String formattedMinTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, minTemp);
+                // The art was loaded with the rows, so this is only a lookup
+                Art weatherArt = null == row.artUrl ? null : art.get(row.artUrl);
+                Bitmap weatherArtImage = null == weatherArt ? null : weatherArt.bitmap;
                 if (weatherArtImage != null) {
                     views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
                 } else {
-                    views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+                    views.setImageViewResource(R.id.widget_icon, row.iconResource);
                 }
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                    setRemoteContentDescription(views, description);
+                    setRemoteContentDescription(views, row.description);
                 }
-                views.setTextViewText(R.id.widget_date, formattedDate);
-                views.setTextViewText(R.id.widget_description, description);
-                views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-                views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+                views.setTextViewText(R.id.widget_date, row.dateText);
+                views.setTextViewText(R.id.widget_description, row.description);
+                views.setTextViewText(R.id.widget_high_temperature, row.highText);
+                views.setTextViewText(R.id.widget_low_temperature, row.lowText);
 
                 final Intent fillInIntent = new Intent();
-                String locationSetting =
-                        Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
                 Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
                         locationSetting,
-                        dateInMillis);
+                        row.date);
                 fillInIntent.setData(weatherUri);
                 views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
                 return views;
@@ -161,8 +176,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public long getItemId(int position) {
-                if (data.moveToPosition(position))
-                    return data.getLong(INDEX_WEATHER_ID);
+                if (position < rows.size())
+                    return rows.get(position).stableId;
                 return position;
             }
 
@@ -20,35 +20,41 @@ import android.app.IntentService;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
+import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.ForecastRepository;
+import com.example.android.sunshine.app.ForecastRow;
 import com.example.android.sunshine.app.R;
-import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
+ * <p/>
+ * Widgets are grouped by the layout their width calls for, and each group is sent a single
+ * RemoteViews, so the cost of an update doesn't grow with the number of widgets.  The content
+ * last sent to each widget is remembered as a hash, and widgets that would get the same content
+ * again are skipped unless the update is forced.
  */
 public class TodayWidgetIntentService extends IntentService {
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-    private static final int INDEX_MAX_TEMP = 2;
-    private static final int INDEX_MIN_TEMP = 3;
+    /**
+     * Set to update every widget even if its content hasn't changed, e.g. because the host
+     * asked for an update and may have lost what it showed.
+     */
+    public static final String EXTRA_FORCE = "force";
+
+    // Remembers the hash of what each widget last showed, keyed by widget id
+    private static final String STATE_PREFERENCES = "today_widget_state";
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
@@ -61,36 +67,36 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
+        // Get today's data from the forecast the app has loaded, or the snapshot written by
+        // the last sync, and only load it from the ContentProvider if there's neither
+        ForecastRepository repository = ForecastRepository.getInstance(this);
+        ForecastRepository.Forecast forecast = repository.getCurrent();
+        if (forecast == null) {
+            forecast = repository.readSnapshot();
         }
-        if (!data.moveToFirst()) {
-            data.close();
+        if (forecast == null) {
+            forecast = repository.get();
+        }
+        if (forecast == null || forecast.rows.isEmpty()) {
             return;
         }
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
-        int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
-
-        // Perform this loop procedure for each Today widget
+        ForecastRow today = forecast.rows.get(0);
+        int weatherArtResourceId = today.artResource;
+        String description = today.description;
+        String formattedMaxTemperature = today.highText;
+        String formattedMinTemperature = today.lowText;
+
+        // Sort the widgets that need this content into layouts by width
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        boolean force = intent.getBooleanExtra(EXTRA_FORCE, false);
+        SharedPreferences state = getSharedPreferences(STATE_PREFERENCES, MODE_PRIVATE);
+        SharedPreferences.Editor stateEditor = state.edit();
+        SparseArray<ArrayList<Integer>> widgetsByLayout = new SparseArray<ArrayList<Integer>>();
         for (int appWidgetId : appWidgetIds) {
             // Find the correct layout based on the widget's width
-            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId, defaultWidth);
             int layoutId;
             if (widgetWidth >= largeWidth) {
                 layoutId = R.layout.widget_today_large;
@@ -99,7 +105,33 @@ public class TodayWidgetIntentService extends IntentService {
             } else {
                 layoutId = R.layout.widget_today_small;
             }
-            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+
+            int contentHash = Arrays.hashCode(new Object[]{layoutId, weatherArtResourceId,
+                    description, formattedMaxTemperature, formattedMinTemperature});
+            String key = Integer.toString(appWidgetId);
+            if (!force && state.contains(key) && state.getInt(key, 0) == contentHash) {
+                continue;
+            }
+            stateEditor.putInt(key, contentHash);
+
+            ArrayList<Integer> widgets = widgetsByLayout.get(layoutId);
+            if (null == widgets) {
+                widgets = new ArrayList<Integer>();
+                widgetsByLayout.put(layoutId, widgets);
+            }
+            widgets.add(appWidgetId);
+        }
+        if (0 == widgetsByLayout.size()) {
+            return;
+        }
+
+        // Create an Intent to launch MainActivity
+        Intent launchIntent = new Intent(this, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
+
+        // Build each layout's views once, and send them to all of its widgets
+        for (int i = 0; i < widgetsByLayout.size(); i++) {
+            RemoteViews views = new RemoteViews(getPackageName(), widgetsByLayout.keyAt(i));
 
             // Add the data to the RemoteViews
             views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
@@ -110,29 +142,45 @@ public class TodayWidgetIntentService extends IntentService {
             views.setTextViewText(R.id.widget_description, description);
             views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
             views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
-
-            // Create an Intent to launch MainActivity
-            Intent launchIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
             views.setOnClickPendingIntent(R.id.widget, pendingIntent);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            // Tell the AppWidgetManager to perform an update on this layout's widgets
+            ArrayList<Integer> widgets = widgetsByLayout.valueAt(i);
+            int[] ids = new int[widgets.size()];
+            for (int w = 0; w < ids.length; w++) {
+                ids[w] = widgets.get(w);
+            }
+            appWidgetManager.updateAppWidget(ids, views);
+        }
+        stateEditor.commit();
+    }
+
+    /**
+     * Forgets what deleted widgets were showing.
+     */
+    static void forgetWidgets(Context context, int[] appWidgetIds) {
+        SharedPreferences.Editor editor =
+                context.getSharedPreferences(STATE_PREFERENCES, MODE_PRIVATE).edit();
+        for (int appWidgetId : appWidgetIds) {
+            editor.remove(Integer.toString(appWidgetId));
         }
+        editor.apply();
     }
 
-    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId,
+                               int defaultWidth) {
         // Prior to Jelly Bean, widgets were always their default size
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
-            return getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+            return defaultWidth;
         }
         // For Jelly Bean and higher devices, widgets can be resized - the current size can be
         // retrieved from the newly added App Widget Options
-        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId);
+        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId, defaultWidth);
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId,
+                                          int defaultWidth) {
         Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
         if (options.containsKey(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH)) {
             int minWidthDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
@@ -141,7 +189,7 @@ public class TodayWidgetIntentService extends IntentService {
             return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, minWidthDp,
                     displayMetrics);
         }
-        return  getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        return defaultWidth;
     }
 
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
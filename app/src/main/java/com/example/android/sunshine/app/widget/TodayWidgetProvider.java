@@ -34,7 +34,14 @@ public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        context.startService(new Intent(context, TodayWidgetIntentService.class));
+        // The host may have lost what the widgets showed, so resend it even if it's unchanged
+        context.startService(new Intent(context, TodayWidgetIntentService.class)
+                .putExtra(TodayWidgetIntentService.EXTRA_FORCE, true));
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        TodayWidgetIntentService.forgetWidgets(context, appWidgetIds);
     }
 
     @Override
@@ -55,8 +55,13 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -91,19 +96,32 @@ public class DigitalWatchFace extends CanvasWatchFaceService {
             GoogleApiClient.ConnectionCallbacks,
             GoogleApiClient.OnConnectionFailedListener {
 
-        private final String LOW_KEY = "key_low";
-        private final String HIGH_KEY = "key_high";
         private final String WEATHERID_KEY = "key_weatherid";
         private final String WEATHER_DATAMAP = "/weather";
         private final String WEATHER_REQUEST = "/weather_request";
         private final String ASSET_KEY = "key_asset";
+        // The phone sends the id of the art to show, and the art itself only when we ask for it
+        private final String ART_ID_KEY = "key_art_id";
+        private final String ART_REQUEST = "/art_request";
+        private final String ART_PATH_PREFIX = "/art/";
+        private final String ART_DIR = "art";
         private final int TIMEOUT_MS = 1000;
+        // How many days after today to show
+        private static final int UPCOMING_DAYS = 3;
         private final Handler mUpdateTimeHandler = new EngineHandler(this);
 
         private Bitmap mWeatherIcon;
-        private Double mLowTemp;
-        private Double mHighTemp;
-        private Asset mAsset;
+        // Every day the phone sent, from the day it synced on
+        private List<ForecastPayload.Day> mForecast;
+        // The julian day the texts below were formatted for
+        private int mForecastJulianDay = -1;
+        // Formatted when the temperatures arrive rather than on every frame
+        private String mLowTempText;
+        private String mHighTempText;
+        // The next few days, on one line
+        private String mUpcomingText;
+        // The id of the art to show, which may not have arrived yet
+        private volatile String mArtId;
         private final String TAG = "CanvasWatchService:";
 
         private final String TIME_STAMP_KEY = "time_stamp";
@@ -120,11 +138,15 @@ public class DigitalWatchFace extends CanvasWatchFaceService {
         private Paint mTextPaintNormal;
         private Paint mTextPaintBold;
         private Paint mTextPaintTemperature;
+        private Paint mTextPaintForecast;
         private Paint mBitmapPaint;
 
         private boolean mAmbient;
         private Time mTime;
         private int mTapCount;
+        // Every hour and minute text, so that drawing the time doesn't format anything
+        private final String[] mHourTexts = new String[24];
+        private final String[] mMinuteTexts = new String[60];
 
         private float mXOffsetHour;
         private float mXOffsetMinute;
@@ -132,6 +154,7 @@ public class DigitalWatchFace extends CanvasWatchFaceService {
         private float mXOffsetLow;
         private float mXOffsetHigh;
         private float mYOffsetTemperature;
+        private float mYOffsetForecast;
         private float mXOffsetBitmap;
         private float mYOffsetBitmap;
         private GoogleApiClient mGoogleApiClient;
@@ -166,9 +189,19 @@ public class DigitalWatchFace extends CanvasWatchFaceService {
             mTextPaintTemperature = new Paint();
             mTextPaintTemperature = createTextPaint(resources.getColor(R.color.digital_text), NORMAL_TYPEFACE, 40.0f);
 
+            mTextPaintForecast = createTextPaint(resources.getColor(R.color.digital_text), NORMAL_TYPEFACE,
+                    resources.getDimension(R.dimen.digital_forecast_text_size));
+            mTextPaintForecast.setTextAlign(Paint.Align.CENTER);
+
             mBitmapPaint = new Paint();
 
             mTime = new Time();
+            for (int hour = 0; hour < mHourTexts.length; hour++) {
+                mHourTexts[hour] = String.format("%02d", hour);
+            }
+            for (int minute = 0; minute < mMinuteTexts.length; minute++) {
+                mMinuteTexts[minute] = String.format(":%02d", minute);
+            }
 
             mGoogleApiClient = new GoogleApiClient.Builder(DigitalWatchFace.this)
                     .addApi(Wearable.API)
@@ -253,6 +286,7 @@ public class DigitalWatchFace extends CanvasWatchFaceService {
             mYOffsetBitmap = resources.getDimension(R.dimen.digital_y_offset_bitmap_round);
             mYOffsetClock = resources.getDimension(R.dimen.digital_y_offset_clock);
             mYOffsetTemperature = resources.getDimension(R.dimen.digital_y_offset_temperature_round);
+            mYOffsetForecast = resources.getDimension(R.dimen.digital_y_offset_forecast);
             mXOffsetHigh = resources.getDimension(isRound
                     ? R.dimen.digital_x_offset_high_temperature_round : R.dimen.digital_x_offset_high_temperature);
             mXOffsetLow = resources.getDimension(isRound
@@ -302,15 +336,21 @@ public class DigitalWatchFace extends CanvasWatchFaceService {
 
             // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
             mTime.setToNow();
-            String textHour = String.format("%02d", mTime.hour);
-            String textMinute = String.format(":%02d", mTime.minute);
-            if (mLowTemp != null) {
-                String textLowTemp = String.format("%.0f", mLowTemp) + (char) 0x00B0;
-                canvas.drawText(textLowTemp, mXOffsetLow, mYOffsetTemperature, mTextPaintTemperature);
+            String textHour = mHourTexts[mTime.hour];
+            String textMinute = mMinuteTexts[mTime.minute];
+            if (mForecast != null
+                    && Time.getJulianDay(mTime.toMillis(false), mTime.gmtoff) != mForecastJulianDay) {
+                // A new day, so today is further into the forecast
+                formatForecast();
             }
-            if (mHighTemp != null) {
-                String textHighTemp = String.format("%.0f", mHighTemp) + (char) 0x00B0;
-                canvas.drawText(textHighTemp, mXOffsetHigh, mYOffsetTemperature, mTextPaintTemperature);
+            if (mUpcomingText != null) {
+                canvas.drawText(mUpcomingText, bounds.width() / 2f, mYOffsetForecast, mTextPaintForecast);
+            }
+            if (mLowTempText != null) {
+                canvas.drawText(mLowTempText, mXOffsetLow, mYOffsetTemperature, mTextPaintTemperature);
+            }
+            if (mHighTempText != null) {
+                canvas.drawText(mHighTempText, mXOffsetHigh, mYOffsetTemperature, mTextPaintTemperature);
             }
             if (mWeatherIcon != null && !isInAmbientMode()) {
                 canvas.drawBitmap(mWeatherIcon, mXOffsetBitmap, mYOffsetBitmap, mBitmapPaint);
@@ -319,7 +359,7 @@ public class DigitalWatchFace extends CanvasWatchFaceService {
             canvas.drawText(textMinute, mXOffsetMinute, mYOffsetClock, mTextPaintNormal);
         }
 
-        public Bitmap loadBitmapFromAsset(Asset asset) {
+        public InputStream openAsset(Asset asset) {
             if (asset == null) {
                 throw new IllegalArgumentException("Asset must be non-null");
             }
@@ -334,10 +374,40 @@ public class DigitalWatchFace extends CanvasWatchFaceService {
 
             if (assetInputStream == null) {
                 Log.w(TAG, "Requested an unknown Asset.");
-                return null;
             }
-            // decode the stream into a bitmap
-            return BitmapFactory.decodeStream(assetInputStream);
+            return assetInputStream;
+        }
+
+        private File getArtFile(String artId) {
+            return new File(new File(getFilesDir(), ART_DIR), artId + ".png");
+        }
+
+        // Shows the art if it's been saved, and returns whether it had
+        private boolean showArt(String artId) {
+            File file = getArtFile(artId);
+            if (!file.exists()) {
+                return false;
+            }
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap == null) {
+                return false;
+            }
+            int size = (int) getResources().getDimension(R.dimen.weather_icon_size);
+            mWeatherIcon = Bitmap.createScaledBitmap(bitmap, size, size, true);
+            postInvalidate();
+            return true;
+        }
+
+        public void requestArt(String artId) {
+            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(ART_REQUEST).setUrgent();
+            putDataMapRequest.getDataMap().putString(ART_ID_KEY, artId);
+            // so asking again for the same art is still a change
+            putDataMapRequest.getDataMap().putLong(TIME_STAMP_KEY, System.currentTimeMillis());
+
+            PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
+            putDataRequest.setUrgent();
+
+            Wearable.DataApi.putDataItem(mGoogleApiClient, putDataRequest);
         }
 
         /**
@@ -410,30 +480,129 @@ public class DigitalWatchFace extends CanvasWatchFaceService {
                     DataItem dataItem = event.getDataItem();
                     if (dataItem.getUri().getPath().compareTo(WEATHER_DATAMAP) == 0) {
                         DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
-                        if (dataMap.containsKey(LOW_KEY)) {
-                            mLowTemp = dataMap.getDouble(LOW_KEY);
-                        }
-                        if (dataMap.containsKey(HIGH_KEY)) {
-                            mHighTemp = dataMap.getDouble(HIGH_KEY);
+                        List<ForecastPayload.Day> forecast = ForecastPayload.decode(
+                                dataMap.getByteArray(ForecastPayload.FORECAST_KEY));
+                        if (forecast != null) {
+                            mForecast = forecast;
+                            formatForecast();
                         }
-                        if (dataMap.containsKey(ASSET_KEY)) {
-                            mAsset = dataMap.getAsset(ASSET_KEY);
-                            new GetBitmap().execute(mAsset);
+                        if (dataMap.containsKey(ART_ID_KEY)) {
+                            mArtId = dataMap.getString(ART_ID_KEY);
+                            new LoadArt().execute(mArtId);
                         }
+                    } else if (dataItem.getUri().getPath().startsWith(ART_PATH_PREFIX)) {
+                        DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
+                        new SaveArt(dataMap.getString(ART_ID_KEY))
+                                .execute(dataMap.getAsset(ASSET_KEY));
                     }
                     invalidate();
                 }
             }
         }
 
-        public class GetBitmap extends AsyncTask<Asset, Void, Void> {
+        /**
+         * Formats today's temperatures, and the days after it, from the forecast.  The phone
+         * numbers the days by their local julian day, so we find today the same way.
+         */
+        private void formatForecast() {
+            Time time = new Time();
+            time.setToNow();
+            int julianDay = Time.getJulianDay(time.toMillis(false), time.gmtoff);
+
+            mForecastJulianDay = julianDay;
+            mLowTempText = null;
+            mHighTempText = null;
+            StringBuilder upcoming = new StringBuilder();
+            int shown = 0;
+            for (ForecastPayload.Day day : mForecast) {
+                if (day.julianDay < julianDay) {
+                    continue;
+                }
+                if (day.julianDay == julianDay) {
+                    mLowTempText = formatTemperature(day.low);
+                    mHighTempText = formatTemperature(day.high);
+                } else if (shown < UPCOMING_DAYS) {
+                    time.setJulianDay(day.julianDay);
+                    if (shown > 0) {
+                        upcoming.append("  ");
+                    }
+                    upcoming.append(time.format("%a")).append(' ')
+                            .append(formatTemperature(day.high)).append('/')
+                            .append(formatTemperature(day.low));
+                    shown++;
+                }
+            }
+            mUpcomingText = shown > 0 ? upcoming.toString() : null;
+        }
+
+        private String formatTemperature(double temperature) {
+            return String.format("%.0f", temperature) + (char) 0x00B0;
+        }
+
+        // Shows the art we've been told to, or asks the phone for it if we don't have it yet
+        public class LoadArt extends AsyncTask<String, Void, Void> {
+
+            @Override
+            protected Void doInBackground(String... params) {
+                String artId = params[0];
+                if (!showArt(artId)) {
+                    requestArt(artId);
+                }
+                return null;
+            }
+        }
+
+        // Saves art the phone sent, and shows it if it's the art we're waiting for
+        public class SaveArt extends AsyncTask<Asset, Void, Void> {
+            private final String mId;
+
+            public SaveArt(String artId) {
+                mId = artId;
+            }
 
             @Override
             protected Void doInBackground(Asset... params) {
-                Asset asset = params[0];
-                float size = Float.valueOf(getResources().getDimension(R.dimen.weather_icon_size));
-                mWeatherIcon = Bitmap.createScaledBitmap(loadBitmapFromAsset(asset), (int) size, (int) size, false);
-                postInvalidate();
+                if (mId == null || params[0] == null) {
+                    return null;
+                }
+                InputStream in = openAsset(params[0]);
+                if (in == null) {
+                    return null;
+                }
+                File file = getArtFile(mId);
+                File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+                OutputStream out = null;
+                try {
+                    file.getParentFile().mkdirs();
+                    out = new FileOutputStream(tmp);
+                    byte[] buffer = new byte[4096];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                    out.close();
+                    out = null;
+                    if (!tmp.renameTo(file)) {
+                        tmp.delete();
+                        return null;
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Error saving art " + mId, e);
+                    tmp.delete();
+                    return null;
+                } finally {
+                    try {
+                        in.close();
+                        if (out != null) {
+                            out.close();
+                        }
+                    } catch (IOException e) {
+                        Log.w(TAG, "Error closing art " + mId, e);
+                    }
+                }
+                if (mId.equals(mArtId)) {
+                    showArt(mId);
+                }
                 return null;
             }
         }
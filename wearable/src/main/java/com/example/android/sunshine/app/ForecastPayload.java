@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes the forecast the phone packs for the watch face.  This must match the phone's
+ * ForecastPayload, which describes the layout: a version byte, a day count and the first day's
+ * local julian day, then the condition id, high and low of each consecutive day, with
+ * temperatures in tenths of a degree Celsius.
+ */
+public final class ForecastPayload {
+    public static final String FORECAST_KEY = "key_forecast";
+
+    static final int VERSION = 2;
+
+    /**
+     * One day of the forecast.
+     */
+    public static final class Day {
+        // The local julian day, as Time.getJulianDay gives it
+        public final int julianDay;
+        public final int weatherId;
+        public final double high;
+        public final double low;
+
+        Day(int julianDay, int weatherId, double high, double low) {
+            this.julianDay = julianDay;
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    private ForecastPayload() {
+    }
+
+    /**
+     * @return the days in the payload, from the first on, or null if it was packed with a
+     * version we don't know or is cut short
+     */
+    public static List<Day> decode(byte[] payload) {
+        if (payload == null || payload.length == 0 || payload[0] != VERSION) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            buffer.get();
+            int count = buffer.get() & 0xFF;
+            int julianDay = buffer.getInt();
+            List<Day> days = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int weatherId = buffer.getShort();
+                double high = buffer.getShort() / 10.0;
+                double low = buffer.getShort() / 10.0;
+                days.add(new Day(julianDay + i, weatherId, high, low));
+            }
+            return Collections.unmodifiableList(days);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+}